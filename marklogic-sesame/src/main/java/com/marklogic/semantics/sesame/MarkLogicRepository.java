@@ -22,6 +22,7 @@ package com.marklogic.semantics.sesame;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.semantics.sesame.client.MarkLogicClient;
 import com.marklogic.semantics.sesame.client.MarkLogicClientDependent;
+import com.marklogic.semantics.sesame.client.NamedThreadFactory;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.repository.Repository;
@@ -32,6 +33,11 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -58,6 +64,27 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
 
     private boolean quadMode;
 
+    private boolean pooled = false;
+    private MarkLogicRepositoryConnectionPool pool;
+
+    public static final int DEFAULT_SCHEDULER_THREADS = 1;
+    private static final long SCHEDULER_SHUTDOWN_MILLIS = 1000;
+
+    // runs write cache staleness checks of all connections, and pool eviction
+    private int schedulerThreads = DEFAULT_SCHEDULER_THREADS;
+    private ScheduledExecutorService scheduler;
+
+    // parses query results of all connections in the background
+    private int resultThreads = MarkLogicClient.DEFAULT_RESULT_THREADS;
+    private int resultQueueLength = MarkLogicClient.DEFAULT_RESULT_QUEUE_LENGTH;
+    private RejectedExecutionHandler resultRejectionHandler;
+    private boolean resultVirtualThreads = false;
+    private ExecutorService resultExecutor;
+
+    // sends write cache flushes of all connections in the background
+    private int flushThreads = MarkLogicClient.DEFAULT_FLUSH_THREADS;
+    private ExecutorService flushExecutor;
+
     private ValueFactory f;
 
     /**
@@ -139,6 +166,9 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
      */
     @Override
     protected void initializeInternal() throws RepositoryException {
+        if (pool != null) {
+            pool.open();
+        }
     }
 
     /**
@@ -149,6 +179,40 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
      */
     @Override
     protected void shutDownInternal() throws RepositoryException {
+        if (pool != null) {
+            pool.close();
+        }
+        ScheduledExecutorService toStop;
+        ExecutorService results;
+        ExecutorService flushes;
+        synchronized (this) {
+            toStop = this.scheduler;
+            this.scheduler = null;
+            results = this.resultExecutor;
+            this.resultExecutor = null;
+            flushes = this.flushExecutor;
+            this.flushExecutor = null;
+        }
+        if (results != null) {
+            // results still being read keep their threads until consumed or closed
+            results.shutdown();
+        }
+        if (flushes != null) {
+            // flushes already queued are still sent, later ones of connections left open run on the caller
+            flushes.shutdown();
+        }
+        if (toStop != null) {
+            // cancels the write cache checks of connections left open, their caches are still flushed when full or closed
+            toStop.shutdown();
+            try {
+                if (!toStop.awaitTermination(SCHEDULER_SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+                    toStop.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                toStop.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
@@ -188,6 +252,12 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
      * returns a MarkLogicConnection object which is the entry point to
      * performing all queries.
      *
+     * each connection gets its own MarkLogicClient (transaction and write
+     * cache) sharing this repository's connection to MarkLogic
+     *
+     * if pooled, connections are borrowed from the connection pool and
+     * returned to it on close
+     *
      * @return MarkLogicRepositoryConnection
      * @throws RepositoryException
      */
@@ -197,11 +267,248 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
         if (!isInitialized()) {
             throw new RepositoryException("MarkLogicRepository not initialized.");
         }
-        return new MarkLogicRepositoryConnection(this, client, quadMode);
+        if (isPooled()) {
+            return getConnectionPool().borrow();
+        }
+        return newConnection();
+    }
+
+    /**
+     * opens a new connection
+     *
+     * @return MarkLogicRepositoryConnection
+     * @throws RepositoryException
+     */
+    MarkLogicRepositoryConnection newConnection() throws RepositoryException {
+        return newConnection(newClient());
+    }
+
+    /**
+     * opens a new connection on client, a pooled client being reused by
+     * a new connection each time it is borrowed
+     *
+     * @param connClient
+     * @return MarkLogicRepositoryConnection
+     */
+    MarkLogicRepositoryConnection newConnection(MarkLogicClient connClient) {
+        return new MarkLogicRepositoryConnection(this, connClient, quadMode);
+    }
+
+    /**
+     * creates the client of a new connection, copied from the repository's client
+     *
+     * @return MarkLogicClient
+     */
+    MarkLogicClient newClient() {
+        MarkLogicClient connClient = new MarkLogicClient(getMarkLogicClient());
+        connClient.setScheduledExecutor(getScheduledExecutor());
+        connClient.setResultExecutor(getResultExecutor());
+        connClient.setFlushExecutor(getFlushExecutor());
+        return connClient;
+    }
+
+    /**
+     * returns number of threads running write cache checks for all connections
+     *
+     * @return int
+     */
+    public synchronized int getSchedulerThreads() {
+        return schedulerThreads;
+    }
+
+    /**
+     * sets number of threads running write cache checks for all connections,
+     * takes effect when the repository is next initialized
+     *
+     * @param schedulerThreads
+     */
+    public synchronized void setSchedulerThreads(int schedulerThreads) {
+        if (schedulerThreads < 1) {
+            throw new IllegalArgumentException("schedulerThreads must be at least 1.");
+        }
+        this.schedulerThreads = schedulerThreads;
+    }
+
+    /**
+     * returns number of threads sending write cache flushes for all connections
+     *
+     * @return int
+     */
+    public synchronized int getFlushThreads() {
+        return flushThreads;
+    }
+
+    /**
+     * sets number of threads sending write cache flushes for all connections,
+     * takes effect when the repository is next initialized
+     *
+     * @param flushThreads
+     */
+    public synchronized void setFlushThreads(int flushThreads) {
+        if (flushThreads < 1) {
+            throw new IllegalArgumentException("flushThreads must be at least 1.");
+        }
+        this.flushThreads = flushThreads;
+    }
+
+    /**
+     * returns maximum number of threads parsing query results for all connections
+     *
+     * @return int
+     */
+    public synchronized int getResultThreads() {
+        return resultThreads;
+    }
+
+    /**
+     * sets maximum number of threads parsing query results for all connections,
+     * each open query result holds a thread until it is consumed or closed;
+     * takes effect when the repository is next initialized
+     *
+     * @param resultThreads
+     */
+    public synchronized void setResultThreads(int resultThreads) {
+        if (resultThreads < 1) {
+            throw new IllegalArgumentException("resultThreads must be at least 1.");
+        }
+        this.resultThreads = resultThreads;
+    }
+
+    /**
+     * returns number of query results waiting for a thread before further queries are rejected
+     *
+     * @return int
+     */
+    public synchronized int getResultQueueLength() {
+        return resultQueueLength;
+    }
+
+    /**
+     * sets number of query results waiting for a thread before further queries are rejected;
+     * takes effect when the repository is next initialized
+     *
+     * @param resultQueueLength
+     */
+    public synchronized void setResultQueueLength(int resultQueueLength) {
+        if (resultQueueLength < 0) {
+            throw new IllegalArgumentException("resultQueueLength must not be negative.");
+        }
+        this.resultQueueLength = resultQueueLength;
+    }
+
+    /**
+     * returns handler called when a query result can be neither run nor queued,
+     * null meaning the query fails
+     *
+     * @return RejectedExecutionHandler
+     */
+    public synchronized RejectedExecutionHandler getResultRejectionHandler() {
+        return resultRejectionHandler;
+    }
+
+    /**
+     * sets handler called when a query result can be neither run nor queued, null
+     * (the default) failing the query; see MarkLogicClient.newResultExecutor() for
+     * unsupported handlers. Takes effect when the repository is next initialized
+     *
+     * @param resultRejectionHandler
+     */
+    public synchronized void setResultRejectionHandler(RejectedExecutionHandler resultRejectionHandler) {
+        this.resultRejectionHandler = resultRejectionHandler;
+    }
+
+    /**
+     * returns if query results are parsed on virtual threads when the JVM supports them
+     *
+     * @return boolean
+     */
+    public synchronized boolean isResultVirtualThreads() {
+        return resultVirtualThreads;
+    }
+
+    /**
+     * sets if query results are parsed on virtual threads when the JVM supports them,
+     * falling back to platform threads otherwise; takes effect when the repository
+     * is next initialized
+     *
+     * @param resultVirtualThreads
+     */
+    public synchronized void setResultVirtualThreads(boolean resultVirtualThreads) {
+        this.resultVirtualThreads = resultVirtualThreads;
+    }
+
+    /**
+     * returns the query result executor shared by all connections of this
+     * repository, created on first use and stopped on shutDown()
+     *
+     * @return ExecutorService
+     */
+    synchronized ExecutorService getResultExecutor() {
+        if (this.resultExecutor == null) {
+            this.resultExecutor = MarkLogicClient.newResultExecutor(resultThreads, resultQueueLength, resultRejectionHandler, resultVirtualThreads);
+        }
+        return this.resultExecutor;
+    }
+
+    /**
+     * returns the write cache flush executor shared by all connections of this
+     * repository, created on first use with daemon threads and stopped on shutDown()
+     *
+     * @return ExecutorService
+     */
+    synchronized ExecutorService getFlushExecutor() {
+        if (this.flushExecutor == null) {
+            this.flushExecutor = MarkLogicClient.newFlushExecutor(flushThreads);
+        }
+        return this.flushExecutor;
+    }
+
+    /**
+     * returns the scheduler shared by all connections of this repository,
+     * created on first use with daemon threads and stopped on shutDown()
+     *
+     * @return ScheduledExecutorService
+     */
+    synchronized ScheduledExecutorService getScheduledExecutor() {
+        if (this.scheduler == null) {
+            this.scheduler = Executors.newScheduledThreadPool(schedulerThreads, new NamedThreadFactory("marklogic-sesame-scheduler", true));
+        }
+        return this.scheduler;
+    }
+
+    /**
+     * returns if getConnection() hands out pooled connections
+     *
+     * @return boolean
+     */
+    public synchronized boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * sets if getConnection() hands out pooled connections, configured via getConnectionPool()
+     *
+     * @param pooled
+     */
+    public synchronized void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * returns the connection pool used when pooled
+     *
+     * @return MarkLogicRepositoryConnectionPool
+     */
+    public synchronized MarkLogicRepositoryConnectionPool getConnectionPool() {
+        if (this.pool == null) {
+            this.pool = new MarkLogicRepositoryConnectionPool(this);
+        }
+        return this.pool;
     }
 
     /**
-     * returns MarkLogicClient object which manages communication to ML server via Java api client
+     * returns MarkLogicClient object which manages communication to ML server via Java api client,
+     * its settings are inherited by the clients of connections subsequently opened
      *
      * @return MarkLogicClient
      */
@@ -22,6 +22,7 @@ package com.marklogic.semantics.sesame;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.semantics.SPARQLRuleset;
+import com.marklogic.semantics.sesame.client.MarkLogicBulkLoader;
 import com.marklogic.semantics.sesame.client.MarkLogicClient;
 import com.marklogic.semantics.sesame.query.*;
 import info.aduna.iteration.*;
@@ -51,7 +52,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.openrdf.query.QueryLanguage.SPARQL;
 
@@ -70,8 +78,6 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
 
     private static final String SOMETHING = "ASK { ?s ?p ?o }";
 
-    private static final String COUNT_EVERYTHING = "SELECT (count(?s) as ?ct) where { GRAPH ?g { ?s ?p ?o } }";
-
     private static final String ALL_GRAPH_URIS = "SELECT ?g { GRAPH ?g {} filter (?g != IRI(\"http://marklogic.com/semantics#graphs\"))}";
 
     private static final String GET_STATEMENTS = "SELECT * {GRAPH ?ctx { ?s ?p ?o . }}";
@@ -84,6 +90,9 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     private SPARQLRuleset[] defaultRulesets;
     private QueryDefinition defaultQueryDef;
 
+    private volatile MarkLogicRepositoryConnectionPool pool;
+    private final AtomicBoolean returned = new AtomicBoolean(false);
+
     /**
      * constructor
      *
@@ -134,21 +143,23 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     /**
      * Releases the connection to the database.  Ensures that open transactions
      * are complete. Stops write cache Timer.
+     *
+     * a pooled connection instead returns its client to its pool, this connection
+     * being closed either way, so it cannot reach the client of the next borrower
      */
     public void close()
         throws RepositoryException
     {
-        try {
-            sync();
-            if (this.isActive()) {
-                logger.debug("rollback open transaction on closing connection.");
-                client.rollbackTransaction();
+        MarkLogicRepositoryConnectionPool pool = this.pool;
+        if (pool != null) {
+            if (pool.release(this)) {
+                return;
             }
-        } catch (Exception e) {
-            
+        } else if (!isOpen()) {
+            return;
         }
-        client.stopTimer();
         super.close();
+        closeClient(client);
     }
     
     /**
@@ -795,17 +806,8 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     @Override
     public long size(){
         try {
-            MarkLogicTupleQuery tupleQuery = prepareTupleQuery(COUNT_EVERYTHING);
-            tupleQuery.setIncludeInferred(false);
-            tupleQuery.setRulesets((SPARQLRuleset)null);
-            tupleQuery.setConstrainingQueryDefinition((QueryDefinition)null);
-            TupleQueryResult qRes = tupleQuery.evaluate();
-            // just one answer
-            BindingSet result = qRes.next();
-            return ((Literal) result.getBinding("ct").getValue()).longValue();
-        } catch (RepositoryException | MalformedQueryException e) {
-            e.printStackTrace();
-        } catch (QueryEvaluationException e) {
+            return getClient().sendSize();
+        } catch (RepositoryException e) {
             e.printStackTrace();
         }
         return 0;
@@ -825,43 +827,8 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
             contexts = new Resource[] { null };
         }
         try {
-            StringBuffer sb = new StringBuffer();
-            sb.append("SELECT (count(?s) as ?ct) where { GRAPH ?g { ?s ?p ?o }");
-            boolean first = true;
-            // with no args, measure the whole triple store.
-            if (contexts != null && contexts.length > 0) {
-                sb.append("filter (?g = (");
-                for (Resource context : contexts) {
-                    if (first) {
-                        first = !first;
-                    }
-                    else {
-                        sb.append(",");
-                    }
-                    if (context == null) {
-                        sb.append("IRI(\""+DEFAULT_GRAPH_URI+"\")");
-                    } else {
-                        sb.append("IRI(\"" + context.toString() + "\")");
-                    }
-                }
-                sb.append(") )");
-            }else{
-                sb.append("filter (?g = (IRI(\""+DEFAULT_GRAPH_URI+"\")))");
-            }
-            sb.append("}");
-            logger.debug(sb.toString());
-            MarkLogicTupleQuery tupleQuery = prepareTupleQuery(sb.toString());
-            tupleQuery.setIncludeInferred(false);
-            tupleQuery.setRulesets((SPARQLRuleset) null);
-            tupleQuery.setConstrainingQueryDefinition((QueryDefinition)null);
-            TupleQueryResult qRes = tupleQuery.evaluate();
-            // just one answer
-            BindingSet result = qRes.next();
-            // if 'null' was one or more of the arguments, then totalSize will be non-zero.
-            return ((Literal) result.getBinding("ct").getValue()).longValue();
-        } catch (RepositoryException | MalformedQueryException e) {
-            e.printStackTrace();
-        } catch (QueryEvaluationException e) {
+            return getClient().sendSize(contexts);
+        } catch (RepositoryException e) {
             e.printStackTrace();
         }
         return 0;
@@ -896,7 +863,7 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public boolean isEmpty() throws RepositoryException {
-        return size() == 0;
+        return getClient().sendIsEmpty();
     }
 
     /**
@@ -1033,9 +1000,10 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     }
 
     /**
-     * add triples via URL
+     * add triples via URL, streamed into MarkLogic as downloaded
      *
-     * sets base URI to url if none is supplied
+     * sets base URI to url if none is supplied, format is taken from url
+     * or response content type if none is supplied
      *
      * @param url
      * @param baseURI
@@ -1047,11 +1015,10 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public void add(URL url, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, RepositoryException {
-        InputStream in = new URL(url.toString()).openStream(); //TBD- naive impl, will need refactoring
         if(notNull(baseURI)) {
-            getClient().sendAdd(in, baseURI, dataFormat, contexts);
+            getClient().sendAdd(url, baseURI, dataFormat, contexts);
         }else{
-            getClient().sendAdd(in, url.toString(), dataFormat, contexts);
+            getClient().sendAdd(url, url.toString(), dataFormat, contexts);
         }
     }
 
@@ -1090,11 +1057,12 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public void add(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException {
+        List<Statement> batch = new ArrayList<Statement>();
         Iterator <? extends Statement> iter = statements.iterator();
         while(iter.hasNext()){
-            Statement st = iter.next();
-            add(st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
+            addToBatch(batch, iter.next(), contexts);
         }
+        sendBatch(batch);
     }
 
     /**
@@ -1108,10 +1076,11 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public <E extends Exception> void add(Iteration<? extends Statement, E> statements, Resource... contexts) throws RepositoryException, E {
+        List<Statement> batch = new ArrayList<Statement>();
         while(statements.hasNext()){
-            Statement st = statements.next();
-            add(st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
+            addToBatch(batch, statements.next(), contexts);
         }
+        sendBatch(batch);
     }
 
 
@@ -1149,12 +1118,12 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public void remove(Iterable<? extends Statement> statements) throws RepositoryException {
-        sync();
+        RemoveBatch batch = new RemoveBatch();
         Iterator <? extends Statement> iter = statements.iterator();
         while(iter.hasNext()){
-            Statement st = iter.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject());
+            removeToBatch(batch, iter.next(), false);
         }
+        sendRemoveBatch(batch);
     }
 
     /**
@@ -1166,12 +1135,12 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public void remove(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException {
-        sync();
+        RemoveBatch batch = new RemoveBatch();
         Iterator <? extends Statement> iter = statements.iterator();
         while(iter.hasNext()){
-            Statement st = iter.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
+            removeToBatch(batch, iter.next(), true, contexts);
         }
+        sendRemoveBatch(batch);
     }
 
     /**
@@ -1184,11 +1153,11 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public <E extends Exception> void remove(Iteration<? extends Statement, E> statements) throws RepositoryException, E {
-        sync();
+        RemoveBatch batch = new RemoveBatch();
         while(statements.hasNext()){
-            Statement st = statements.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject());
+            removeToBatch(batch, statements.next(), false);
         }
+        sendRemoveBatch(batch);
     }
 
     /**
@@ -1202,11 +1171,11 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public <E extends Exception> void remove(Iteration<? extends Statement, E> statements, Resource... contexts) throws RepositoryException, E {
-        sync();
+        RemoveBatch batch = new RemoveBatch();
         while(statements.hasNext()){
-            Statement st = statements.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
+            removeToBatch(batch, statements.next(), true, contexts);
         }
+        sendRemoveBatch(batch);
     }
 
     /**
@@ -1373,12 +1342,26 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     }
 
 
+    /**
+     * returns a loader uploading large inputs in parts concurrently, with graph perms of
+     * this connection; N-Triples and N-Quads files are split by line, other formats such
+     * as Turtle, RDF/XML and TriG, and streams, are parsed into batches of statements
+     *
+     * @return MarkLogicBulkLoader
+     */
+    public MarkLogicBulkLoader newBulkLoader() {
+        return client.newBulkLoader();
+    }
+
     /**
      * forces write cache to sync
      *
      */
     @Override
     public void sync() throws MarkLogicSesameException {
+        if (!isOpen()) {
+            throw new MarkLogicSesameException("connection is closed.");
+        }
         client.sync();
     }
 
@@ -1386,6 +1369,57 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     // private ////////////////////////////////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * sets the pool this connection is returned to on close, null if not pooled
+     *
+     * @param pool
+     */
+    void setPool(MarkLogicRepositoryConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * marks connection as returned to its pool, closing it
+     *
+     * @return false if it was already returned
+     * @throws RepositoryException
+     */
+    boolean markReturned() throws RepositoryException {
+        if (!returned.compareAndSet(false, true)) {
+            return false;
+        }
+        super.close();
+        return true;
+    }
+
+    /**
+     * returns client, whether or not the connection is open, for its pool
+     *
+     * @return MarkLogicClient
+     */
+    MarkLogicClient getPooledClient() {
+        return this.client;
+    }
+
+    /**
+     * flushes write cache, rolls back any open transaction and stops the write cache timer
+     *
+     * @param client
+     */
+    static void closeClient(MarkLogicClient client) {
+        try {
+            if (client.isActiveTransaction()) {
+                LoggerFactory.getLogger(MarkLogicRepositoryConnection.class).debug("rollback open transaction on closing connection.");
+                client.rollbackTransaction();
+            } else {
+                client.sync();
+            }
+        } catch (Exception e) {
+            LoggerFactory.getLogger(MarkLogicRepositoryConnection.class).debug("error closing connection", e);
+        }
+        client.stopTimer();
+    }
+
     /**
      * get client and check if repositoryconnection is open
      *
@@ -1446,6 +1480,79 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         return quadMode;
     }
 
+    /**
+     * adds a statement to a batch once per context, sending the batch when full
+     *
+     * @param batch
+     * @param st
+     * @param contexts
+     * @throws RepositoryException
+     */
+    private void addToBatch(List<Statement> batch, Statement st, Resource... contexts) throws RepositoryException {
+        Resource[] merged = mergeResource(st.getContext(), contexts);
+        if (merged.length == 0) {
+            batch.add(getValueFactory().createStatement(st.getSubject(), st.getPredicate(), st.getObject()));
+        } else {
+            for (Resource context : merged) {
+                batch.add(getValueFactory().createStatement(st.getSubject(), st.getPredicate(), st.getObject(), context));
+            }
+        }
+        if (batch.size() >= getClient().getAddBatchSize()) {
+            sendBatch(batch);
+        }
+    }
+
+    /**
+     * sends and clears a batch of statements
+     *
+     * @param batch
+     * @throws RepositoryException
+     */
+    private void sendBatch(List<Statement> batch) throws RepositoryException {
+        if (!batch.isEmpty()) {
+            getClient().sendAdd(null, batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * adds a statement to a removal batch, grouped by the contexts it is removed from,
+     * sending the batch when full
+     *
+     * @param batch
+     * @param st
+     * @param useContexts  if false statement context is ignored, removing it from every graph
+     * @param contexts
+     * @throws RepositoryException
+     */
+    private void removeToBatch(RemoveBatch batch, Statement st, boolean useContexts, Resource... contexts) throws RepositoryException {
+        List<Resource> key = useContexts ? Arrays.asList(mergeResource(st.getContext(), contexts)) : Collections.<Resource>emptyList();
+        List<Statement> group = batch.groups.get(key);
+        if (group == null) {
+            group = new ArrayList<Statement>();
+            batch.groups.put(key, group);
+        }
+        group.add(st);
+        if (++batch.size >= getClient().getRemoveBatchSize()) {
+            sendRemoveBatch(batch);
+        }
+    }
+
+    /**
+     * sends and clears a batch of statements to remove
+     *
+     * @param batch
+     * @throws RepositoryException
+     */
+    private void sendRemoveBatch(RemoveBatch batch) throws RepositoryException {
+        for (Map.Entry<List<Resource>, List<Statement>> group : batch.groups.entrySet()) {
+            List<Resource> contexts = group.getKey();
+            getClient().sendRemove(null, group.getValue(), contexts.toArray(new Resource[contexts.size()]));
+        }
+        batch.groups.clear();
+        batch.size = 0;
+    }
+
     /**
      * private utility for merging Resource varargs
      *
@@ -1506,4 +1613,11 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
 
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * statements to remove, grouped by the contexts they are removed from, with their total count
+     */
+    private static class RemoveBatch {
+        private final Map<List<Resource>, List<Statement>> groups = new LinkedHashMap<List<Resource>, List<Statement>>();
+        private int size = 0;
+    }
 }
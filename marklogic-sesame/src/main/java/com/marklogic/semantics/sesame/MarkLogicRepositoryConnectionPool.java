@@ -0,0 +1,441 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame;
+
+import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.repository.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * pool of MarkLogicRepositoryConnection objects, enabled with
+ * MarkLogicRepository.setPooled(true)
+ *
+ * the pool holds the clients of connections, each borrow handing out a new
+ * connection on an idle client; closing a pooled connection closes it, flushes
+ * its write cache, rolls back any open transaction and returns its client to
+ * the pool, keeping the client and write cache for the next caller, while the
+ * closed connection can no longer be used; clients idle longer than maxIdleMillis
+ * are closed, down to minSize
+ *
+ * @author James Fuller
+ */
+public class MarkLogicRepositoryConnectionPool {
+
+    protected final Logger logger = LoggerFactory.getLogger(MarkLogicRepositoryConnectionPool.class);
+
+    public static final int DEFAULT_MIN_SIZE = 0;
+    public static final int DEFAULT_MAX_SIZE = 16;
+    public static final long DEFAULT_MAX_IDLE_MILLIS = 60000;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+    public static final long DEFAULT_EVICTION_MILLIS = 5000;
+
+    private static final String VALIDATION_QUERY = "ASK {}";
+
+    private final MarkLogicRepository repository;
+
+    private int minSize = DEFAULT_MIN_SIZE;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long maxIdleMillis = DEFAULT_MAX_IDLE_MILLIS;
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private boolean testOnBorrow = false;
+
+    // guarded by this
+    private final Deque<IdleClient> idle = new ArrayDeque<IdleClient>();
+    private int size = 0;
+    private boolean closed = false;
+    private ScheduledFuture<?> eviction;
+
+    /**
+     * constructor
+     *
+     * @param repository
+     */
+    MarkLogicRepositoryConnectionPool(MarkLogicRepository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * returns minimum number of connections kept open
+     *
+     * @return int
+     */
+    public synchronized int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * sets minimum number of connections kept open
+     *
+     * @param minSize
+     */
+    public synchronized void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * returns maximum number of open connections, idle or borrowed
+     *
+     * @return int
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * sets maximum number of open connections, idle or borrowed
+     *
+     * @param maxSize
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1.");
+        }
+        this.maxSize = maxSize;
+        notifyAll();
+    }
+
+    /**
+     * returns how long a connection may stay idle before it is closed
+     *
+     * @return long
+     */
+    public synchronized long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /**
+     * sets how long a connection may stay idle before it is closed
+     *
+     * @param maxIdleMillis
+     */
+    public synchronized void setMaxIdleMillis(long maxIdleMillis) {
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * returns how long getConnection() waits for a connection when the pool is exhausted
+     *
+     * @return long
+     */
+    public synchronized long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * sets how long getConnection() waits for a connection when the pool is exhausted
+     *
+     * @param maxWaitMillis
+     */
+    public synchronized void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * returns true if idle connections are checked against the server before being handed out
+     *
+     * @return boolean
+     */
+    public synchronized boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    /**
+     * sets if idle connections are checked against the server before being handed out
+     *
+     * @param testOnBorrow
+     */
+    public synchronized void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * returns number of open connections, idle or borrowed
+     *
+     * @return int
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * returns number of idle connections
+     *
+     * @return int
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * hands out an idle connection, opening a new one if none is idle and the
+     * pool is not exhausted, otherwise waits up to maxWaitMillis for one to be returned
+     *
+     * @return MarkLogicRepositoryConnection
+     * @throws RepositoryException
+     */
+    MarkLogicRepositoryConnection borrow() throws RepositoryException {
+        long deadline = System.currentTimeMillis() + getMaxWaitMillis();
+        while (true) {
+            MarkLogicClient client;
+            boolean validate;
+            synchronized (this) {
+                if (closed) {
+                    throw new RepositoryException("Connection pool is closed.");
+                }
+                startEviction();
+                IdleClient ic = idle.pollFirst();
+                if (ic != null) {
+                    client = ic.client;
+                    validate = testOnBorrow;
+                } else if (size < maxSize) {
+                    size++;
+                    client = null;
+                    validate = false;
+                } else {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new RepositoryException("Timed out waiting for a pooled connection.");
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RepositoryException("Interrupted waiting for a pooled connection.");
+                    }
+                    continue;
+                }
+            }
+            if (client == null) {
+                client = openClient();
+            }
+            MarkLogicRepositoryConnection conn = repository.newConnection(client);
+            conn.setPool(this);
+            if (isValid(conn, validate)) {
+                return conn;
+            }
+            conn.markReturned();
+            discard(client);
+        }
+    }
+
+    /**
+     * returns the client of a connection to the pool, called on closing a pooled
+     * connection; a connection is returned once, later calls doing nothing
+     *
+     * @param conn
+     * @return false if the pool is closed and the client should be closed instead
+     * @throws RepositoryException
+     */
+    boolean release(MarkLogicRepositoryConnection conn) throws RepositoryException {
+        if (!conn.markReturned()) {
+            return true;
+        }
+        MarkLogicClient client = conn.getPooledClient();
+        try {
+            if (client.isActiveTransaction()) {
+                logger.debug("rollback open transaction on returning connection to pool.");
+                client.rollbackTransaction();
+            } else {
+                client.sync();
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            logger.warn("discarding pooled connection that could not be reset", e);
+            discard(client);
+            return true;
+        }
+        synchronized (this) {
+            if (closed) {
+                size--;
+                notifyAll();
+                return false;
+            }
+            idle.addFirst(new IdleClient(client, System.currentTimeMillis()));
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * reopens pool after close
+     */
+    synchronized void open() {
+        closed = false;
+    }
+
+    /**
+     * closes all idle connections, borrowed connections are closed when returned
+     */
+    void close() {
+        List<IdleClient> toClose;
+        synchronized (this) {
+            closed = true;
+            if (eviction != null) {
+                eviction.cancel(false);
+                eviction = null;
+            }
+            toClose = new ArrayList<IdleClient>(idle);
+            idle.clear();
+        }
+        for (IdleClient ic : toClose) {
+            discard(ic.client);
+        }
+    }
+
+    /**
+     * closes clients idle longer than maxIdleMillis, keeping minSize clients,
+     * and tops the pool up to minSize
+     */
+    void evict() {
+        List<IdleClient> toClose = new ArrayList<IdleClient>();
+        int toOpen;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int remaining = size;
+            // oldest idle clients are at the tail
+            Iterator<IdleClient> iter = idle.descendingIterator();
+            while (iter.hasNext() && remaining > minSize) {
+                IdleClient ic = iter.next();
+                if (now - ic.since > maxIdleMillis) {
+                    iter.remove();
+                    toClose.add(ic);
+                    remaining--;
+                }
+            }
+            toOpen = Math.max(0, Math.min(minSize, maxSize) - remaining);
+            size = remaining + toOpen;
+        }
+        for (IdleClient ic : toClose) {
+            discard(ic.client);
+        }
+        for (int i = 0; i < toOpen; i++) {
+            try {
+                MarkLogicClient client = openClient();
+                synchronized (this) {
+                    idle.addLast(new IdleClient(client, System.currentTimeMillis()));
+                    notifyAll();
+                }
+            } catch (RuntimeException e) {
+                logger.warn("could not open pooled connection", e);
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * creates a new pooled client, the caller having already counted it in size
+     *
+     * @return MarkLogicClient
+     */
+    private MarkLogicClient openClient() {
+        try {
+            return repository.newClient();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                size--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * closes a client and removes it from the pool
+     *
+     * @param client
+     */
+    private void discard(MarkLogicClient client) {
+        synchronized (this) {
+            size--;
+            notifyAll();
+        }
+        MarkLogicRepositoryConnection.closeClient(client);
+    }
+
+    /**
+     * checks connection is open and, if requested, that the server answers
+     *
+     * @param conn
+     * @param testServer
+     * @return boolean
+     */
+    private boolean isValid(MarkLogicRepositoryConnection conn, boolean testServer) {
+        if (!conn.isOpen()) {
+            return false;
+        }
+        if (!testServer) {
+            return true;
+        }
+        try {
+            return conn.prepareBooleanQuery(VALIDATION_QUERY).evaluate();
+        } catch (RepositoryException | MalformedQueryException | QueryEvaluationException e) {
+            logger.debug("pooled connection failed validation", e);
+            return false;
+        }
+    }
+
+    /**
+     * schedules eviction on the repository scheduler, callers must hold this
+     */
+    private void startEviction() {
+        if (eviction == null) {
+            eviction = repository.getScheduledExecutor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evict();
+                    } catch (RuntimeException e) {
+                        // an exception escaping would cancel all further evictions
+                        logger.warn("pool eviction failed", e);
+                    }
+                }
+            }, DEFAULT_EVICTION_MILLIS, DEFAULT_EVICTION_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * idle client and the time it was returned
+     */
+    private static class IdleClient {
+        private final MarkLogicClient client;
+        private final long since;
+
+        private IdleClient(MarkLogicClient client, long since) {
+            this.client = client;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import info.aduna.io.GZipUtil;
+import info.aduna.io.ZipUtil;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * detection of gzip and zip compressed input, by its leading bytes
+ *
+ * @author James Fuller
+ */
+final class CompressedInput {
+
+    private CompressedInput() {
+    }
+
+    /**
+     * returns stream supporting mark, needed to look at leading bytes
+     *
+     * @param in
+     * @return InputStream
+     */
+    static InputStream markable(InputStream in) {
+        return in.markSupported() ? in : new BufferedInputStream(in);
+    }
+
+    /**
+     * returns true if stream starts with gzip magic bytes, stream must support mark
+     *
+     * @param in
+     * @return boolean
+     * @throws IOException
+     */
+    static boolean isGZip(InputStream in) throws IOException {
+        return GZipUtil.isGZipStream(in);
+    }
+
+    /**
+     * returns true if stream starts with zip magic bytes, stream must support mark
+     *
+     * @param in
+     * @return boolean
+     * @throws IOException
+     */
+    static boolean isZip(InputStream in) throws IOException {
+        return ZipUtil.isZipStream(in);
+    }
+
+    /**
+     * returns true if file is gzip or zip compressed
+     *
+     * @param file
+     * @return boolean
+     * @throws IOException
+     */
+    static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 16)) {
+            return isGZip(in) || isZip(in);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * OutputStreamSender parsing a triples file, or spooled stream, once and
+ * writing each triple into every context as N-Quads, so input added to
+ * several contexts is read and sent once rather than once per context
+ *
+ * blank nodes get a suffix per context, keeping the graphs apart as when
+ * the file is merged into each context separately; a parse failure is
+ * kept for the caller, as the request layer only sees an IOException;
+ * the input is reopened on each write so the request can be resent
+ *
+ * @author James Fuller
+ */
+class ContextQuadsSender implements ResendableSender {
+
+    private final File file;
+    private final SpoolBuffer spool;
+    private final String baseURI;
+    private final RDFFormat dataFormat;
+    private final Resource[] contexts;
+    private final ValueFactory f = ValueFactoryImpl.getInstance();
+
+    private volatile RDFParseException parseException;
+
+    /**
+     * constructor
+     *
+     * @param file
+     * @param baseURI
+     * @param dataFormat
+     * @param contexts  null contexts are the default graph
+     */
+    public ContextQuadsSender(File file, String baseURI, RDFFormat dataFormat, Resource... contexts) {
+        this.file = file;
+        this.spool = null;
+        this.baseURI = baseURI;
+        this.dataFormat = dataFormat;
+        this.contexts = contexts;
+    }
+
+    /**
+     * constructor
+     *
+     * @param spool
+     * @param baseURI
+     * @param dataFormat
+     * @param contexts  null contexts are the default graph
+     */
+    public ContextQuadsSender(SpoolBuffer spool, String baseURI, RDFFormat dataFormat, Resource... contexts) {
+        this.file = null;
+        this.spool = spool;
+        this.baseURI = baseURI;
+        this.dataFormat = dataFormat;
+        this.contexts = contexts;
+    }
+
+    /**
+     * returns parse failure of the last write, if any
+     *
+     * @return RDFParseException
+     */
+    public RDFParseException getParseException() {
+        return parseException;
+    }
+
+    /**
+     * parses file, writing quads to request body
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void write(OutputStream out) throws IOException {
+        parseException = null;
+        try (InputStream in = new BufferedInputStream(openStream())) {
+            final RDFWriter writer = Rio.createWriter(RDFFormat.NQUADS, out);
+            RDFParser parser = Rio.createParser(dataFormat, f);
+            parser.setRDFHandler(new RDFHandlerBase() {
+                @Override
+                public void startRDF() throws RDFHandlerException {
+                    writer.startRDF();
+                }
+
+                @Override
+                public void handleStatement(Statement st) throws RDFHandlerException {
+                    for (int i = 0; i < contexts.length; i++) {
+                        writer.handleStatement(f.createStatement(
+                                (Resource) scope(st.getSubject(), i), st.getPredicate(), scope(st.getObject(), i), contexts[i]));
+                    }
+                }
+
+                @Override
+                public void endRDF() throws RDFHandlerException {
+                    writer.endRDF();
+                }
+            });
+            // fixup - baseURI cannot be null
+            parser.parse(in, baseURI == null ? "" : baseURI);
+        } catch (RDFParseException e) {
+            parseException = e;
+            throw new IOException(e);
+        } catch (RDFHandlerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * opens input
+     *
+     * @return InputStream
+     * @throws IOException
+     */
+    private InputStream openStream() throws IOException {
+        if (spool != null) {
+            return spool.openInputStream();
+        }
+        return Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * gives blank node an id of its own in the i-th context
+     *
+     * @param v
+     * @param i
+     * @return Value
+     */
+    private Value scope(Value v, int i) {
+        if (v instanceof BNode) {
+            return f.createBNode(((BNode) v).getID() + "c" + i);
+        }
+        return v;
+    }
+}
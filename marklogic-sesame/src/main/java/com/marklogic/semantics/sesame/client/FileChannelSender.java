@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * OutputStreamSender streaming a file into the request body; the request
+ * layer only gives an OutputStream, so FileChannel.transferTo copies
+ * through a buffer like any stream copy, but without the file being read
+ * into memory; the file is reopened on each write so the request can be resent
+ *
+ * @author James Fuller
+ */
+class FileChannelSender implements ResendableSender {
+
+    private final File file;
+
+    /**
+     * constructor
+     *
+     * @param file
+     */
+    public FileChannelSender(File file) {
+        this.file = file;
+    }
+
+    /**
+     * writes file to request body
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void write(OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long size = channel.size();
+            long pos = 0;
+            while (pos < size) {
+                pos += channel.transferTo(pos, size - pos, target);
+            }
+        }
+    }
+}
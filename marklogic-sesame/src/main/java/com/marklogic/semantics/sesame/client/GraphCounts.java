@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * triple counts of graphs, shared by a MarkLogicClient and the clients copied from it
+ *
+ * counts of every graph are read from MarkLogic in one query, and reused until older
+ * than maxAgeMillis; writes through the clients sharing the counts apply their known
+ * effect, a cleared graph being empty, or mark the graphs written as needing a recount,
+ * as an add or remove may or may not change the number of distinct triples
+ *
+ * each write also moves the counts on a generation, so counts read while a write
+ * was under way are never kept
+ *
+ * @author James Fuller
+ */
+class GraphCounts {
+
+    public static final long DEFAULT_MAX_AGE_MILLIS = 0;
+
+    // guarded by this
+    private final Map<String, Long> counts = new HashMap<String, Long>();
+    private final Set<String> stale = new HashSet<String>();
+    private boolean complete = false;
+    private long validated = 0;
+    private long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private long generation = 0;
+
+    /**
+     * returns how long counts are reused, 0 disabling reuse
+     *
+     * @return long
+     */
+    synchronized long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * sets how long counts are reused, 0 disabling reuse
+     *
+     * @param maxAgeMillis
+     */
+    synchronized void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * returns true if counts are reused
+     *
+     * @return boolean
+     */
+    synchronized boolean isEnabled() {
+        return maxAgeMillis > 0;
+    }
+
+    /**
+     * returns current generation, to be passed to refreshed
+     *
+     * @return long
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * returns number of triples in graphs, or null if it must be read from MarkLogic
+     *
+     * @param graphs  graph uris, null for every graph
+     * @return Long
+     */
+    synchronized Long get(Set<String> graphs) {
+        if (!isFresh()) {
+            return null;
+        }
+        long total = 0;
+        if (graphs == null) {
+            if (!stale.isEmpty()) {
+                return null;
+            }
+            for (Long count : counts.values()) {
+                total += count;
+            }
+            return total;
+        }
+        for (String graph : graphs) {
+            if (stale.contains(graph)) {
+                return null;
+            }
+            Long count = counts.get(graph);
+            if (count != null) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * returns graphs to recount before get(graphs) can be answered
+     *
+     * @param graphs  graph uris, null for every graph
+     * @return Set  graph uris, null if every graph must be recounted
+     */
+    synchronized Set<String> toRefresh(Set<String> graphs) {
+        if (!isFresh()) {
+            return null;
+        }
+        Set<String> refresh = new HashSet<String>(stale);
+        if (graphs != null) {
+            refresh.retainAll(graphs);
+        }
+        return refresh;
+    }
+
+    /**
+     * keeps counts read from MarkLogic, unless a write happened since startGeneration
+     *
+     * @param read  counts of graphs holding triples
+     * @param graphs  graph uris counted, null if every graph was counted
+     * @param startGeneration  generation when the counts were requested
+     */
+    synchronized void refreshed(Map<String, Long> read, Set<String> graphs, long startGeneration) {
+        if (generation != startGeneration) {
+            return;
+        }
+        if (graphs == null) {
+            counts.clear();
+            counts.putAll(read);
+            stale.clear();
+            complete = true;
+            validated = System.currentTimeMillis();
+            return;
+        }
+        for (String graph : graphs) {
+            Long count = read.get(graph);
+            if (count == null) {
+                counts.remove(graph);
+            } else {
+                counts.put(graph, count);
+            }
+            stale.remove(graph);
+        }
+    }
+
+    /**
+     * records triples added to or removed from graphs
+     *
+     * @param graphs  graph uris, null for every graph
+     */
+    synchronized void written(Set<String> graphs) {
+        generation++;
+        if (graphs == null) {
+            complete = false;
+        } else {
+            stale.addAll(graphs);
+        }
+    }
+
+    /**
+     * records graphs cleared, leaving them empty
+     *
+     * @param graphs  graph uris, null for every graph
+     */
+    synchronized void cleared(Set<String> graphs) {
+        generation++;
+        if (graphs == null) {
+            counts.clear();
+            stale.clear();
+            return;
+        }
+        for (String graph : graphs) {
+            counts.remove(graph);
+            stale.remove(graph);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * returns true if counts of every graph were read recently enough, callers must hold this
+     *
+     * @return boolean
+     */
+    private boolean isFresh() {
+        return maxAgeMillis > 0 && complete && System.currentTimeMillis() - validated <= maxAgeMillis;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.DatabaseClient;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * request interceptor gzip compressing the bodies of requests sent while
+ * enabled on the current thread, used to compress triples uploaded to MarkLogic
+ *
+ * it is installed once on the http client of a DatabaseClient, which is shared
+ * by every MarkLogicClient using it, so compression is switched on per upload
+ * rather than per client
+ *
+ * @author James Fuller
+ */
+class GzipUploadInterceptor implements HttpRequestInterceptor {
+
+    private static final ThreadLocal<Boolean> compress = new ThreadLocal<Boolean>();
+
+    // guarded by GzipUploadInterceptor.class
+    private static final Map<Object, Boolean> installed = new WeakHashMap<Object, Boolean>();
+
+    /**
+     * installs interceptor on the http client of databaseClient, if not already installed
+     *
+     * @param databaseClient
+     * @return false if the http client does not support interceptors
+     */
+    static synchronized boolean install(DatabaseClient databaseClient) {
+        Object httpClient = databaseClient.getClientImplementation();
+        if (!installed.containsKey(httpClient)) {
+            if (!addFirst(httpClient, new GzipUploadInterceptor())) {
+                return false;
+            }
+            installed.put(httpClient, Boolean.TRUE);
+        }
+        return true;
+    }
+
+    /**
+     * adds interceptor ahead of the standard interceptors, which set headers from the entity
+     *
+     * the http client the java client api builds is an AbstractHttpClient, deprecated in
+     * httpclient 4.3 but the only type its interceptors can be added through
+     *
+     * @param httpClient
+     * @param interceptor
+     * @return false if httpClient is not an AbstractHttpClient
+     */
+    @SuppressWarnings("deprecation")
+    private static boolean addFirst(Object httpClient, HttpRequestInterceptor interceptor) {
+        if (!(httpClient instanceof org.apache.http.impl.client.AbstractHttpClient)) {
+            return false;
+        }
+        ((org.apache.http.impl.client.AbstractHttpClient) httpClient).addRequestInterceptor(interceptor, 0);
+        return true;
+    }
+
+    /**
+     * starts an upload on the current thread
+     *
+     * @param enabled  if request bodies should be compressed
+     * @return setting to restore with end
+     */
+    static boolean begin(boolean enabled) {
+        boolean previous = Boolean.TRUE.equals(compress.get());
+        compress.set(enabled);
+        return previous;
+    }
+
+    /**
+     * ends an upload on the current thread
+     *
+     * @param previous  setting returned by begin
+     */
+    static void end(boolean previous) {
+        if (previous) {
+            compress.set(Boolean.TRUE);
+        } else {
+            compress.remove();
+        }
+    }
+
+    /**
+     * wraps request body in a gzip compressing entity
+     *
+     * @param request
+     * @param context
+     */
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        if (!Boolean.TRUE.equals(compress.get()) || !(request instanceof HttpEntityEnclosingRequest)) {
+            return;
+        }
+        HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+        HttpEntity entity = enclosing.getEntity();
+        if (entity == null || entity.getContentEncoding() != null || request.containsHeader(HTTP.CONTENT_ENCODING)) {
+            return;
+        }
+        enclosing.setEntity(new GzipCompressingEntity(entity));
+    }
+}
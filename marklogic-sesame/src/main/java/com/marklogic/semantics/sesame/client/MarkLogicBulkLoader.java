@@ -0,0 +1,1155 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.MarkLogicServerException;
+import com.marklogic.client.io.OutputStreamSender;
+import com.marklogic.semantics.sesame.MarkLogicSesameException;
+import com.marklogic.semantics.sesame.MarkLogicTransactionException;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.ParserConfig;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.BasicParserSettings;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * loads large files in batches uploaded concurrently, each batch being retried on its own
+ *
+ * N-Triples and N-Quads files are split at line boundaries into batches of about chunkSize
+ * bytes, read with positional FileChannel reads so the file is never held in memory and
+ * threads do not share a file position; other formats are parsed with Rio and sent as
+ * N-Quads batches of batchSize statements
+ *
+ * each batch is merged in its own request outside of any transaction, so a failed load may
+ * leave some batches loaded; getAcknowledgedBatches() then tells how many leading batches
+ * are in, and setStartBatch() resumes a load of the same input after them; with a checkpoint
+ * file set, the count is also kept on disk as batches are acknowledged so a load can resume
+ * after a crash
+ *
+ * @author James Fuller
+ */
+public class MarkLogicBulkLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarkLogicBulkLoader.class);
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final long DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // blank nodes are skolemized under a prefix of their own load, kept in its checkpoint so a resume shares them
+    private static final String BLANK_NODE_PREFIX = "http://marklogic.com/semantics/blank/";
+
+    private final MarkLogicClient client;
+
+    private int threads = DEFAULT_THREADS;
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private long startBatch = 0;
+    private String loadId;
+    private File checkpointFile;
+    private ProgressListener progressListener;
+
+    private volatile long acknowledgedBatches = 0;
+
+    /**
+     * notified as each batch of a load is acknowledged by the server, called from loader threads;
+     * totals are -1 when not known up front, as for parsed formats
+     */
+    public interface ProgressListener {
+        void progress(long bytesLoaded, long totalBytes, long batchesLoaded, long totalBatches);
+    }
+
+    /**
+     * constructor
+     *
+     * @param client
+     */
+    MarkLogicBulkLoader(MarkLogicClient client) {
+        this.client = client;
+    }
+
+    /**
+     * returns number of batches uploaded at once
+     *
+     * @return int
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * sets number of batches uploaded at once
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * returns approximate size in bytes of each batch of a line based file, batches are extended to the next line end
+     *
+     * @return long
+     */
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * sets approximate size in bytes of each batch of a line based file, batches are extended to the next line end
+     *
+     * @param chunkSize
+     */
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1.");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * returns number of statements in each batch of a parsed format
+     *
+     * @return int
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * sets number of statements in each batch of a parsed format
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * returns how many times a failed batch is resent
+     *
+     * @return int
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * sets how many times a failed batch is resent
+     *
+     * @param maxRetries
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * returns delay before first retry, multiplied by the attempt for later retries
+     *
+     * @return long
+     */
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    /**
+     * sets delay before first retry, multiplied by the attempt for later retries
+     *
+     * @param retryDelayMillis
+     */
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * returns index of the first batch sent, earlier batches are skipped
+     *
+     * @return long
+     */
+    public long getStartBatch() {
+        return startBatch;
+    }
+
+    /**
+     * sets index of the first batch sent, so a load can be resumed after the batches
+     * an earlier load of the same input with the same chunkSize or batchSize acknowledged;
+     * blank nodes are only shared with the earlier load when resuming from a checkpoint
+     * or when both loads have the same loadId
+     *
+     * @param startBatch
+     */
+    public void setStartBatch(long startBatch) {
+        if (startBatch < 0) {
+            throw new IllegalArgumentException("startBatch must not be negative.");
+        }
+        this.startBatch = startBatch;
+    }
+
+    /**
+     * returns number of leading batches of the last load acknowledged by the server,
+     * including skipped ones; batches after it may also have been loaded
+     *
+     * @return long
+     */
+    public long getAcknowledgedBatches() {
+        return acknowledgedBatches;
+    }
+
+    /**
+     * returns id naming the load
+     *
+     * @return String
+     */
+    public String getLoadId() {
+        return loadId;
+    }
+
+    /**
+     * sets id naming the load, recorded in its checkpoint and deciding its blank node prefix;
+     * a load of a stream is only checkpointed, and resumed, when it has one, as the stream
+     * itself cannot be told apart from another with the same baseURI
+     *
+     * @param loadId
+     */
+    public void setLoadId(String loadId) {
+        this.loadId = loadId;
+    }
+
+    /**
+     * returns file recording acknowledged batches
+     *
+     * @return File
+     */
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * sets file recording acknowledged batches; a load finding a checkpoint of the same
+     * input, contexts and loadId resumes after its batches instead of from startBatch, a load
+     * finding one of another load fails, and the file is deleted once a load completes
+     *
+     * @param checkpointFile
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * returns listener notified of progress
+     *
+     * @return ProgressListener
+     */
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /**
+     * sets listener notified of progress
+     *
+     * @param progressListener
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * loads file, quads into their own graphs, triples into each context or the default graph;
+     * gzip compressed files are decompressed and parsed as read, so cannot be split
+     *
+     * @param file
+     * @param dataFormat
+     * @param contexts
+     * @throws IOException
+     * @throws RDFParseException if file cannot be parsed or server rejects a batch
+     * @throws MarkLogicSesameException
+     */
+    public void load(File file, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, MarkLogicSesameException {
+        boolean compressed = CompressedInput.isCompressed(file);
+        if (compressed || !RDFFormat.NTRIPLES.equals(dataFormat) && !RDFFormat.NQUADS.equals(dataFormat)) {
+            Checkpoint checkpoint = newCheckpoint(file.getCanonicalPath(), dataFormat, file.length(), file.lastModified(), batchSize, contexts);
+            try (InputStream in = decompress(new BufferedInputStream(new FileInputStream(file)))) {
+                load(in, file.toURI().toString(), dataFormat, checkpoint, contexts);
+            }
+            return;
+        }
+        Checkpoint checkpoint = newCheckpoint(file.getCanonicalPath(), dataFormat, file.length(), file.lastModified(), chunkSize, contexts);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Long> ends = split(channel);
+            long totalBytes = channel.size();
+            logger.debug("bulk loading {} bytes from {} in {} batches", totalBytes, file, ends.size());
+
+            Run run = start(totalBytes, ends.size(), checkpoint);
+            try {
+                long start = 0;
+                for (int i = 0; i < ends.size(); i++) {
+                    run.submit(new Chunk(i, channel, start, ends.get(i), run.blankPrefix), dataFormat, contexts);
+                    start = ends.get(i);
+                }
+                run.await();
+                run.complete();
+            } catch (ExecutionException e) {
+                rethrow(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MarkLogicSesameException("Interrupted bulk loading " + file);
+            } finally {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * parses stream and loads statements in N-Quads batches; quads of formats with contexts go
+     * into their own graphs, triples into each context or the default graph; the load is
+     * checkpointed only if it has a loadId
+     *
+     * @param in
+     * @param baseURI
+     * @param dataFormat
+     * @param contexts
+     * @throws IOException
+     * @throws RDFParseException if stream cannot be parsed or server rejects a batch
+     * @throws MarkLogicSesameException if a checkpoint file is found but there is no loadId to resume by
+     */
+    public void load(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, MarkLogicSesameException {
+        Checkpoint checkpoint = null;
+        if (loadId != null) {
+            checkpoint = newCheckpoint(baseURI, dataFormat, -1, -1, batchSize, contexts);
+        } else if (checkpointFile != null && checkpointFile.exists()) {
+            throw new MarkLogicSesameException("Checkpoint " + checkpointFile + " cannot resume a stream without a load id, set one or delete it to start over.");
+        }
+        load(decompress(CompressedInput.markable(in)), baseURI, dataFormat, checkpoint, contexts);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * decompresses gzip input; zip archives hold several documents, which are added one
+     * by one with MarkLogicRepositoryConnection.add rather than bulk loaded
+     *
+     * @param in  stream supporting mark
+     * @return InputStream
+     * @throws IOException
+     * @throws RDFParseException if input is a zip archive
+     */
+    private static InputStream decompress(InputStream in) throws IOException, RDFParseException {
+        if (CompressedInput.isZip(in)) {
+            in.close();
+            throw new RDFParseException("Zip archives cannot be bulk loaded, add them to the connection instead.");
+        }
+        return CompressedInput.isGZip(in) ? new GZIPInputStream(in) : in;
+    }
+
+    /**
+     * parses stream and loads statements in N-Quads batches
+     *
+     * @param in
+     * @param baseURI
+     * @param dataFormat
+     * @param checkpoint
+     * @param contexts
+     * @throws IOException
+     * @throws RDFParseException
+     * @throws MarkLogicSesameException
+     */
+    private void load(InputStream in, String baseURI, RDFFormat dataFormat, Checkpoint checkpoint, Resource... contexts) throws IOException, RDFParseException, MarkLogicSesameException {
+        ValueFactory f = client.getValueFactory() != null ? client.getValueFactory() : ValueFactoryImpl.getInstance();
+        RDFParser parser = Rio.createParser(dataFormat, f);
+        ParserConfig config = new ParserConfig();
+        config.setNonFatalErrors(client.getParserConfig().getNonFatalErrors());
+        config.set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+        parser.setParserConfig(config);
+
+        Run run = start(-1, -1, checkpoint);
+        parser.setRDFHandler(new BatchHandler(run, f, run.blankPrefix, dataFormat.supportsContexts() ? null : contexts));
+        try {
+            parser.parse(in, baseURI);
+            run.await();
+            run.complete();
+        } catch (RDFHandlerException e) {
+            if (e.getCause() instanceof ExecutionException) {
+                rethrow((ExecutionException) e.getCause());
+            }
+            if (e.getCause() instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new MarkLogicSesameException("Interrupted bulk loading " + baseURI);
+            }
+            throw new RDFParseException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MarkLogicSesameException("Interrupted bulk loading " + baseURI);
+        } finally {
+            run.close();
+        }
+    }
+
+    /**
+     * starts a load once checked it may, flushing write cache so earlier adds are not
+     * overtaken, resuming after the batches of the checkpoint, and with its blank node
+     * prefix, if there is one
+     *
+     * @param totalBytes
+     * @param totalBatches
+     * @param checkpoint
+     * @return Run
+     * @throws IOException
+     * @throws MarkLogicSesameException
+     */
+    private Run start(long totalBytes, long totalBatches, Checkpoint checkpoint) throws IOException, MarkLogicSesameException {
+        if (client.isActiveTransaction()) {
+            throw new MarkLogicTransactionException("Bulk loading is not supported in a transaction.");
+        }
+        client.sync();
+        long first = startBatch;
+        String blankPrefix = null;
+        if (checkpoint != null) {
+            long restored = checkpoint.restore();
+            if (restored >= 0) {
+                logger.info("resuming bulk load of {} after {} batches", checkpoint.input, restored);
+                first = restored;
+                blankPrefix = checkpoint.blankPrefix;
+            } else {
+                blankPrefix = checkpoint.blankPrefix = newBlankPrefix(loadId);
+            }
+        }
+        if (blankPrefix == null) {
+            blankPrefix = newBlankPrefix(loadId);
+        }
+        acknowledgedBatches = first;
+        return new Run(totalBytes, totalBatches, first, checkpoint, blankPrefix);
+    }
+
+    /**
+     * returns blank node prefix unique to a load, the same for each load with loadId
+     *
+     * @param loadId
+     * @return String
+     */
+    private static String newBlankPrefix(String loadId) {
+        UUID id = loadId != null ? UUID.nameUUIDFromBytes(loadId.getBytes(StandardCharsets.UTF_8)) : UUID.randomUUID();
+        return BLANK_NODE_PREFIX + id + "/";
+    }
+
+    /**
+     * returns checkpoint of input if a checkpoint file is set, otherwise null
+     *
+     * @param input
+     * @param dataFormat
+     * @param length
+     * @param lastModified
+     * @param batchUnit
+     * @param contexts
+     * @return Checkpoint
+     */
+    private Checkpoint newCheckpoint(String input, RDFFormat dataFormat, long length, long lastModified, long batchUnit, Resource... contexts) {
+        if (checkpointFile == null) {
+            return null;
+        }
+        Properties identity = new Properties();
+        identity.setProperty("input", String.valueOf(input));
+        identity.setProperty("format", dataFormat.getName());
+        identity.setProperty("length", String.valueOf(length));
+        identity.setProperty("lastModified", String.valueOf(lastModified));
+        identity.setProperty("batchUnit", String.valueOf(batchUnit));
+        identity.setProperty("contexts", Arrays.toString(contexts));
+        identity.setProperty("loadId", loadId != null ? loadId : "");
+        return new Checkpoint(checkpointFile, input, identity);
+    }
+
+    /**
+     * splits file into batches of about chunkSize, returning where each ends, after a line feed or at end of file
+     *
+     * @param channel
+     * @return List<Long>
+     * @throws IOException
+     */
+    private List<Long> split(FileChannel channel) throws IOException {
+        List<Long> ends = new ArrayList<Long>();
+        long size = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long start = 0;
+        while (start < size) {
+            long end = start + chunkSize;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = nextLineStart(channel, buf, end - 1, size);
+            }
+            ends.add(end);
+            start = end;
+        }
+        return ends;
+    }
+
+    /**
+     * returns position after the first line feed at or after pos, or size if there is none
+     *
+     * @param channel
+     * @param buf
+     * @param pos
+     * @param size
+     * @return long
+     * @throws IOException
+     */
+    private static long nextLineStart(FileChannel channel, ByteBuffer buf, long pos, long size) throws IOException {
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /**
+     * returns true if failure may be transient, requests the server rejected as invalid are not retried
+     *
+     * @param e
+     * @return boolean
+     */
+    private static boolean isRetryable(RuntimeException e) {
+        if (e instanceof MarkLogicServerException) {
+            MarkLogicServerException se = (MarkLogicServerException) e;
+            return se.getFailedRequest() == null || se.getFailedRequest().getStatusCode() >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * rethrows the failure of a batch
+     *
+     * @param e
+     * @throws IOException
+     * @throws RDFParseException
+     * @throws MarkLogicSesameException
+     */
+    private static void rethrow(ExecutionException e) throws IOException, RDFParseException, MarkLogicSesameException {
+        Throwable cause = e.getCause();
+        if (cause instanceof RDFParseException) throw (RDFParseException) cause;
+        if (cause instanceof IOException) throw (IOException) cause;
+        if (cause instanceof MarkLogicSesameException) throw (MarkLogicSesameException) cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new MarkLogicSesameException("Bulk loading failed: " + cause);
+    }
+
+    /**
+     * one batch of a load, written into the request body and resent on retry
+     */
+    private abstract static class Batch implements OutputStreamSender {
+        protected final long index;
+
+        protected Batch(long index) {
+            this.index = index;
+        }
+
+        abstract long size();
+
+        abstract String describe();
+    }
+
+    /**
+     * byte range of a line based file, streamed from the file with blank node labels
+     * skolemized as the parsed formats are, so chunks and retries share them
+     */
+    private static class Chunk extends Batch {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final String blankPrefix;
+
+        private Chunk(long index, FileChannel channel, long start, long end, String blankPrefix) {
+            super(index);
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.blankPrefix = blankPrefix;
+        }
+
+        @Override
+        long size() {
+            return end - start;
+        }
+
+        @Override
+        String describe() {
+            return "batch " + index + " (bytes " + start + "-" + end + ")";
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            BlankNodeRewriter rewriter = new BlankNodeRewriter(blankPrefix, out);
+            long pos = start;
+            while (pos < end) {
+                buf.clear();
+                buf.limit((int) Math.min(BUFFER_SIZE, end - pos));
+                int n = channel.read(buf, pos);
+                if (n < 0) {
+                    throw new IOException("File truncated while bulk loading.");
+                }
+                rewriter.write(buf.array(), n);
+                pos += n;
+            }
+            rewriter.finish();
+        }
+    }
+
+    /**
+     * copies N-Triples or N-Quads lines, replacing each _:label outside IRIs, literals
+     * and comments with the IRI blankPrefix + label, the IRI a parsed blank node gets
+     */
+    private static class BlankNodeRewriter {
+        private static final int TEXT = 0;
+        private static final int IRI = 1;
+        private static final int LITERAL = 2;
+        private static final int ESCAPE = 3;
+        private static final int COMMENT = 4;
+        private static final int UNDERSCORE = 5;
+        private static final int LABEL = 6;
+
+        private final byte[] prefix;
+        private final OutputStream out;
+        private final ByteArrayOutputStream label = new ByteArrayOutputStream(64);
+        private int state = TEXT;
+
+        private BlankNodeRewriter(String blankPrefix, OutputStream out) {
+            this.prefix = ("<" + blankPrefix).getBytes(StandardCharsets.UTF_8);
+            this.out = out;
+        }
+
+        /**
+         * writes the first n bytes of b, holding back a label that may go on in the next bytes
+         */
+        private void write(byte[] b, int n) throws IOException {
+            int copied = 0;
+            for (int i = 0; i < n; i++) {
+                byte c = b[i];
+                switch (state) {
+                    case TEXT:
+                        if (c == '<') {
+                            state = IRI;
+                        } else if (c == '"') {
+                            state = LITERAL;
+                        } else if (c == '#') {
+                            state = COMMENT;
+                        } else if (c == '_') {
+                            out.write(b, copied, i - copied);
+                            copied = i + 1;
+                            state = UNDERSCORE;
+                        }
+                        break;
+                    case IRI:
+                        if (c == '>') {
+                            state = TEXT;
+                        }
+                        break;
+                    case LITERAL:
+                        if (c == '\\') {
+                            state = ESCAPE;
+                        } else if (c == '"') {
+                            state = TEXT;
+                        }
+                        break;
+                    case ESCAPE:
+                        state = LITERAL;
+                        break;
+                    case COMMENT:
+                        if (c == '\n' || c == '\r') {
+                            state = TEXT;
+                        }
+                        break;
+                    case UNDERSCORE:
+                        if (c == ':') {
+                            label.reset();
+                            copied = i + 1;
+                            state = LABEL;
+                        } else {
+                            out.write('_');
+                            copied = i;
+                            state = TEXT;
+                            i--;
+                        }
+                        break;
+                    case LABEL:
+                        if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '<' || c == '"' || c == '#') {
+                            endLabel();
+                            copied = i;
+                            state = TEXT;
+                            i--;
+                        } else {
+                            label.write(c);
+                            copied = i + 1;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
+            }
+            out.write(b, copied, n - copied);
+        }
+
+        /**
+         * writes what is held back at the end of the input
+         */
+        private void finish() throws IOException {
+            if (state == UNDERSCORE) {
+                out.write('_');
+            } else if (state == LABEL) {
+                endLabel();
+            }
+            state = TEXT;
+        }
+
+        /**
+         * writes label as an IRI, a trailing '.' ending the statement rather than the label
+         */
+        private void endLabel() throws IOException {
+            byte[] bytes = label.toByteArray();
+            int length = bytes.length;
+            while (length > 0 && bytes[length - 1] == '.') {
+                length--;
+            }
+            out.write(prefix);
+            out.write(bytes, 0, length);
+            out.write('>');
+            out.write(bytes, length, bytes.length - length);
+        }
+    }
+
+    /**
+     * parsed statements, serialized as N-Quads by the loader thread on first write
+     */
+    private static class StatementBatch extends Batch {
+        private List<Statement> statements;
+        private byte[] bytes;
+
+        private StatementBatch(long index, List<Statement> statements) {
+            super(index);
+            this.statements = statements;
+        }
+
+        private synchronized byte[] getBytes() throws IOException {
+            if (bytes == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(statements.size() * 128);
+                try {
+                    RDFWriter writer = Rio.createWriter(RDFFormat.NQUADS, out);
+                    writer.startRDF();
+                    for (Statement st : statements) {
+                        writer.handleStatement(st);
+                    }
+                    writer.endRDF();
+                } catch (RDFHandlerException e) {
+                    throw new IOException(e);
+                }
+                bytes = out.toByteArray();
+                statements = null;
+            }
+            return bytes;
+        }
+
+        @Override
+        synchronized long size() {
+            return bytes != null ? bytes.length : 0;
+        }
+
+        @Override
+        String describe() {
+            return "batch " + index;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            out.write(getBytes());
+        }
+    }
+
+    /**
+     * collects parsed statements into batches, skolemizing blank nodes and
+     * putting triples into the given contexts
+     */
+    private class BatchHandler extends RDFHandlerBase {
+        private final Run run;
+        private final ValueFactory f;
+        private final String blankPrefix;
+        private final Resource[] contexts;
+        private List<Statement> statements = new ArrayList<Statement>();
+        private long index = 0;
+
+        private BatchHandler(Run run, ValueFactory f, String blankPrefix, Resource[] contexts) {
+            this.run = run;
+            this.f = f;
+            this.blankPrefix = blankPrefix;
+            this.contexts = contexts;
+        }
+
+        @Override
+        public void handleStatement(Statement st) throws RDFHandlerException {
+            Resource subject = (Resource) skolemize(st.getSubject());
+            Value object = skolemize(st.getObject());
+            if (contexts == null) {
+                statements.add(f.createStatement(subject, st.getPredicate(), object, (Resource) skolemize(st.getContext())));
+            } else if (contexts.length == 0) {
+                statements.add(f.createStatement(subject, st.getPredicate(), object));
+            } else {
+                for (Resource context : contexts) {
+                    statements.add(f.createStatement(subject, st.getPredicate(), object, context));
+                }
+            }
+            if (statements.size() >= batchSize) {
+                send();
+            }
+        }
+
+        @Override
+        public void endRDF() throws RDFHandlerException {
+            if (!statements.isEmpty()) {
+                send();
+            }
+        }
+
+        private void send() throws RDFHandlerException {
+            try {
+                run.submit(new StatementBatch(index++, statements), RDFFormat.NQUADS);
+            } catch (ExecutionException | InterruptedException e) {
+                throw new RDFHandlerException(e);
+            }
+            statements = new ArrayList<Statement>();
+        }
+
+        private Value skolemize(Value v) {
+            if (v instanceof BNode) {
+                return f.createURI(blankPrefix + ((BNode) v).getID());
+            }
+            return v;
+        }
+    }
+
+    /**
+     * state of one load: its threads, batches in flight and acknowledged batches
+     */
+    private class Run {
+        private final long totalBytes;
+        private final long totalBatches;
+        private final long first;
+        private final Checkpoint checkpoint;
+        private final String blankPrefix;
+        private final ExecutorService executor;
+        // bounds batches held in memory when parsing outruns uploading
+        private final Semaphore permits;
+        private final List<Future<Void>> pending = new ArrayList<Future<Void>>();
+
+        // guarded by this
+        private final TreeSet<Long> acknowledged = new TreeSet<Long>();
+        private long bytesLoaded = 0;
+        private long batchesLoaded = 0;
+
+        private Run(long totalBytes, long totalBatches, long first, Checkpoint checkpoint, String blankPrefix) {
+            this.totalBytes = totalBytes;
+            this.totalBatches = totalBatches;
+            this.first = first;
+            this.checkpoint = checkpoint;
+            this.blankPrefix = blankPrefix;
+            this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("marklogic-sesame-bulk-load", true));
+            this.permits = new Semaphore(threads * 2);
+        }
+
+        /**
+         * queues batch unless before first, failing if an earlier batch has failed
+         */
+        private void submit(Batch batch, RDFFormat dataFormat, Resource... contexts) throws ExecutionException, InterruptedException {
+            if (batch.index < first) {
+                return;
+            }
+            permits.acquire();
+            try {
+                Iterator<Future<Void>> iter = pending.iterator();
+                while (iter.hasNext()) {
+                    Future<Void> future = iter.next();
+                    if (future.isDone()) {
+                        iter.remove();
+                        future.get();
+                    }
+                }
+                pending.add(executor.submit(new Upload(batch, dataFormat, contexts, this)));
+            } catch (ExecutionException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * waits for all queued batches
+         */
+        private void await() throws IOException, RDFParseException, MarkLogicSesameException, InterruptedException {
+            for (Future<Void> future : pending) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    rethrow(e);
+                }
+            }
+        }
+
+        /**
+         * records acknowledged batch, advancing acknowledgedBatches over leading ones
+         */
+        private void loaded(Batch batch) {
+            long bytes;
+            long count;
+            long leading;
+            synchronized (this) {
+                acknowledged.add(batch.index);
+                while (!acknowledged.isEmpty() && acknowledged.first() == acknowledgedBatches) {
+                    acknowledged.pollFirst();
+                    acknowledgedBatches++;
+                }
+                bytes = bytesLoaded += batch.size();
+                count = ++batchesLoaded;
+                leading = acknowledgedBatches;
+            }
+            if (checkpoint != null) {
+                checkpoint.save(leading);
+            }
+            ProgressListener listener = progressListener;
+            if (listener != null) {
+                listener.progress(bytes, totalBytes, count, totalBatches);
+            }
+        }
+
+        /**
+         * called once all batches are acknowledged
+         */
+        private void complete() {
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+        }
+
+        /**
+         * stops batches not yet sent once one has failed
+         */
+        private void close() {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * properties file identifying the input of a load, its blank node prefix and how many leading
+     * batches of it are acknowledged, replaced atomically on each save so a crash leaves the last one whole
+     */
+    private static class Checkpoint {
+        private static final String ACKNOWLEDGED = "acknowledgedBatches";
+        private static final String BLANK_PREFIX = "blankNodePrefix";
+
+        private final File file;
+        private final String input;
+        private final Properties identity;
+
+        // set by restore, or by start for a new load, before any save
+        private String blankPrefix;
+
+        // guarded by this
+        private long saved = -1;
+
+        private Checkpoint(File file, String input, Properties identity) {
+            this.file = file;
+            this.input = input;
+            this.identity = identity;
+        }
+
+        /**
+         * returns acknowledged batches recorded for this input, or -1 if there is no checkpoint
+         */
+        private synchronized long restore() throws IOException, MarkLogicSesameException {
+            if (!file.exists()) {
+                return -1;
+            }
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            }
+            for (String name : identity.stringPropertyNames()) {
+                if (!identity.getProperty(name).equals(props.getProperty(name))) {
+                    throw new MarkLogicSesameException("Checkpoint " + file + " is of a different load, " + name
+                            + " was " + props.getProperty(name) + ", delete it to start over.");
+                }
+            }
+            try {
+                saved = Long.parseLong(props.getProperty(ACKNOWLEDGED));
+            } catch (NumberFormatException e) {
+                throw new MarkLogicSesameException("Checkpoint " + file + " is corrupt, delete it to start over.");
+            }
+            blankPrefix = props.getProperty(BLANK_PREFIX);
+            if (blankPrefix == null) {
+                throw new MarkLogicSesameException("Checkpoint " + file + " is corrupt, delete it to start over.");
+            }
+            return saved;
+        }
+
+        /**
+         * records acknowledged batches if more than last saved; a failed save is
+         * logged, the load going on with the previous checkpoint left in place
+         */
+        private synchronized void save(long acknowledged) {
+            if (acknowledged <= saved) {
+                return;
+            }
+            Properties props = new Properties();
+            props.putAll(identity);
+            props.setProperty(BLANK_PREFIX, blankPrefix);
+            props.setProperty(ACKNOWLEDGED, String.valueOf(acknowledged));
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                try (FileOutputStream out = new FileOutputStream(tmp)) {
+                    props.store(out, "marklogic-sesame bulk load checkpoint");
+                    out.getFD().sync();
+                }
+                try {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                saved = acknowledged;
+            } catch (IOException e) {
+                logger.warn("could not save bulk load checkpoint " + file, e);
+            }
+        }
+
+        /**
+         * removes checkpoint of a completed load
+         */
+        private synchronized void delete() {
+            if (file.exists() && !file.delete()) {
+                logger.warn("could not delete bulk load checkpoint {}", file);
+            }
+        }
+    }
+
+    /**
+     * uploads one batch, retrying transient failures
+     */
+    private class Upload implements Callable<Void> {
+        private final Batch batch;
+        private final RDFFormat dataFormat;
+        private final Resource[] contexts;
+        private final Run run;
+
+        private Upload(Batch batch, RDFFormat dataFormat, Resource[] contexts, Run run) {
+            this.batch = batch;
+            this.dataFormat = dataFormat;
+            this.contexts = contexts;
+            this.run = run;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        client.sendBulkAdd(batch, dataFormat, contexts);
+                        run.loaded(batch);
+                        return null;
+                    } catch (RuntimeException e) {
+                        if (!isRetryable(e)) {
+                            RDFParseException failed = new RDFParseException("Request to MarkLogic server failed for " + batch.describe() + ", check input is valid.");
+                            failed.initCause(e);
+                            throw failed;
+                        }
+                        if (attempt >= maxRetries) {
+                            MarkLogicSesameException failed = new MarkLogicSesameException("Bulk load of " + batch.describe()
+                                    + " failed after " + (attempt + 1) + " attempts.");
+                            failed.initCause(e);
+                            throw failed;
+                        }
+                        logger.warn("retrying {} of bulk load after: {}", batch.describe(), e.getMessage());
+                        Thread.sleep(retryDelayMillis * (attempt + 1));
+                    }
+                }
+            } finally {
+                run.permits.release();
+            }
+        }
+    }
+}
@@ -21,36 +21,75 @@ package com.marklogic.semantics.sesame.client;
 
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.Transaction;
+import com.marklogic.client.io.OutputStreamSender;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.semantics.SPARQLRuleset;
 import com.marklogic.semantics.sesame.MarkLogicSesameException;
 import com.marklogic.semantics.sesame.MarkLogicTransactionException;
-import org.apache.commons.io.input.ReaderInputStream;
+import info.aduna.iteration.Iterations;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.openrdf.http.protocol.UnauthorizedException;
+import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.query.*;
+import org.openrdf.query.impl.GraphQueryResultImpl;
+import org.openrdf.query.impl.TupleQueryResultImpl;
+import org.openrdf.query.impl.TupleQueryResultBuilder;
 import org.openrdf.query.resultio.QueryResultIO;
+import org.openrdf.query.resultio.QueryResultParseException;
 import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.query.resultio.TupleQueryResultParser;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
 import org.openrdf.rio.*;
 import org.openrdf.rio.helpers.ParseErrorLogger;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.Charset;
-import java.util.Timer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * An internal class that straddles Sesame and MarkLogic Java API client.
@@ -68,18 +107,77 @@ public class MarkLogicClient {
 	protected static final RDFFormat rdfFormat = RDFFormat.NTRIPLES;
 	private final MarkLogicClientImpl _client;
 
-	private static final Executor executor = Executors.newCachedThreadPool();
+	public static final int DEFAULT_RESULT_THREADS = 64;
+	public static final int DEFAULT_RESULT_QUEUE_LENGTH = 256;
+	private static final long RESULT_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	// used by clients not given a result executor, eg. when MarkLogicClient is used without a repository
+	private static ExecutorService defaultExecutor;
+
+	private Executor executor;
+
+	public static final int DEFAULT_FLUSH_THREADS = 4;
+	private static final long FLUSH_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+	// used by clients not given a flush executor, eg. when MarkLogicClient is used without a repository
+	private static ExecutorService defaultFlushExecutor;
+
+	private Executor flushExecutor;
 
 	private ValueFactory f;
 
 	private ParserConfig parserConfig = new ParserConfig();
 
-	private Transaction tx = null;
+	private volatile Transaction tx = null;
+
+	// used by clients not given a scheduler, eg. when MarkLogicClient is used without a repository
+	private static ScheduledExecutorService defaultScheduler;
+
+	private volatile WriteCacheTimerTask cache;
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> cacheFuture;
+
+	private boolean writeCacheEnabled = true;
+	private boolean timerStarted = false;
+
+	public static final int DEFAULT_ADD_BATCH_SIZE = 1000;
+	private int addBatchSize = DEFAULT_ADD_BATCH_SIZE;
+
+	public static final int DEFAULT_REMOVE_BATCH_SIZE = 1000;
+	private int removeBatchSize = DEFAULT_REMOVE_BATCH_SIZE;
+
+	private long cacheSize = WriteCacheTimerTask.DEFAULT_CACHE_SIZE;
+	private long cacheByteSize = WriteCacheTimerTask.DEFAULT_CACHE_BYTE_SIZE;
+	private int cacheMaxInFlight = WriteCacheTimerTask.DEFAULT_MAX_IN_FLIGHT;
+
+	public static final long DEFAULT_INLINE_RESULT_THRESHOLD = 100;
+	private long inlineResultThreshold = DEFAULT_INLINE_RESULT_THRESHOLD;
 
-	private WriteCacheTimerTask cache;
-	private Timer timer;
+	public static final long DEFAULT_RESULT_PAGE_LENGTH = 0;
+	private long resultPageLength = DEFAULT_RESULT_PAGE_LENGTH;
 
-    private static boolean WRITE_CACHE_ENABLED = true;
+	public static final int DEFAULT_URL_CONNECT_TIMEOUT = 30000;
+	public static final int DEFAULT_URL_READ_TIMEOUT = 300000;
+	private int urlConnectTimeout = DEFAULT_URL_CONNECT_TIMEOUT;
+	private int urlReadTimeout = DEFAULT_URL_READ_TIMEOUT;
+	private boolean urlConditionalGet = false;
+
+	// ETag and Last-Modified of urls last loaded, shared with clients copied from this one
+	private ConcurrentMap<String, String[]> urlValidators = new ConcurrentHashMap<String, String[]>();
+	// validators of urls loaded in the open transaction, recorded in urlValidators only once it commits
+	private final Map<String, String[]> txValidators = new HashMap<String, String[]>();
+
+	private volatile boolean compressUploads = false;
+
+	// shared with clients copied from this one, so writes by any of them invalidate it
+	private QueryResultCache queryCache = new QueryResultCache();
+
+	// shared with clients copied from this one, as queryCache is
+	private GraphCounts counts = new GraphCounts();
+
+	private static final String ANY_TRIPLE = "ASK { GRAPH ?g { ?s ?p ?o } }";
+	private static final String COUNT = "SELECT (count(?s) as ?ct) WHERE { GRAPH ?g { ?s ?p ?o }%s }";
+	private static final String COUNT_BY_GRAPH = "SELECT ?g (count(?s) as ?ct) WHERE { GRAPH ?g { ?s ?p ?o }%s } GROUP BY ?g";
 
 	/**
 	 * constructor init with connection params
@@ -103,36 +201,593 @@ public class MarkLogicClient {
 		this._client = new MarkLogicClientImpl(databaseClient);
 	}
 
+	/**
+	 * constructor init with the DatabaseClient and settings of another MarkLogicClient,
+	 * sharing its connection to MarkLogic but not its transaction or write cache
+     *
+	 * @param client
+	 */
+	public MarkLogicClient(MarkLogicClient client) {
+		this._client = new MarkLogicClientImpl(client.getDatabaseClient());
+		this.f = client.getValueFactory();
+		this.parserConfig = client.getParserConfig();
+		this.cacheSize = client.getWriteCacheSize();
+		this.cacheByteSize = client.getWriteCacheByteSize();
+		this.cacheMaxInFlight = client.getWriteCacheMaxInFlight();
+		this.inlineResultThreshold = client.getInlineResultThreshold();
+		this.resultPageLength = client.getResultPageLength();
+		this.writeCacheEnabled = client.isWriteCacheEnabled();
+		this.addBatchSize = client.getAddBatchSize();
+		this.removeBatchSize = client.getRemoveBatchSize();
+		this.urlConnectTimeout = client.getURLConnectTimeout();
+		this.urlReadTimeout = client.getURLReadTimeout();
+		this.urlConditionalGet = client.isURLConditionalGet();
+		this.urlValidators = client.urlValidators;
+		this.compressUploads = client.isCompressUploads();
+		this.queryCache = client.queryCache;
+		this.counts = client.counts;
+		setRulesets(client.getRulesets());
+		setConstrainingQueryDefinition(client.getConstrainingQueryDefinition());
+		setGraphPerms(client.getGraphPerms());
+	}
+
+	/**
+	 * gets the java api client DatabaseClient
+	 *
+	 * @return DatabaseClient
+	 */
+	public DatabaseClient getDatabaseClient() {
+		return getClient().getDatabaseClient();
+	}
+
+	/**
+	 * creates a bounded executor for parsing query results in the background
+	 *
+	 * each open TupleQueryResult or GraphQueryResult holds a thread until it is
+	 * consumed or closed, further results wait in a queue of queueLength; when
+	 * that is full the handler is called, by default aborting the query
+	 *
+	 * handlers running or discarding the task (CallerRunsPolicy, DiscardPolicy,
+	 * DiscardOldestPolicy) are refused, as they would deadlock or leave a result
+	 * which never completes
+	 *
+	 * @param threads
+	 * @param queueLength
+	 * @param handler
+	 * @param virtualThreads  use virtual threads if the JVM supports them
+	 * @return ExecutorService
+	 */
+	public static ExecutorService newResultExecutor(int threads, int queueLength, RejectedExecutionHandler handler, boolean virtualThreads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1.");
+		}
+		if (queueLength < 0) {
+			throw new IllegalArgumentException("queueLength must not be negative.");
+		}
+		if (handler instanceof ThreadPoolExecutor.CallerRunsPolicy
+				|| handler instanceof ThreadPoolExecutor.DiscardPolicy
+				|| handler instanceof ThreadPoolExecutor.DiscardOldestPolicy) {
+			throw new IllegalArgumentException("Rejection policy " + handler.getClass().getSimpleName() + " is not supported for query results.");
+		}
+		String name = "marklogic-sesame-result";
+		ThreadFactory factory = virtualThreads ? NamedThreadFactory.newVirtualThreadFactory(name) : null;
+		if (factory == null) {
+			factory = new NamedThreadFactory(name, true);
+		}
+		BlockingQueue<Runnable> queue;
+		if (queueLength == 0) {
+			queue = new SynchronousQueue<Runnable>();
+		} else {
+			queue = new ArrayBlockingQueue<Runnable>(queueLength);
+		}
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, RESULT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, factory,
+				handler == null ? new ThreadPoolExecutor.AbortPolicy() : handler);
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * creates a bounded executor for sending write cache flushes in the background,
+	 * with daemon threads; flushes beyond its threads wait in its queue, each write
+	 * cache having at most its maxInFlight flushes outstanding
+	 *
+	 * @param threads
+	 * @return ExecutorService
+	 */
+	public static ExecutorService newFlushExecutor(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1.");
+		}
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, FLUSH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("marklogic-sesame-flush", true));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * sets largest pageLength for which tuple query results are parsed on the
+	 * calling thread rather than in the background, 0 disables
+	 *
+	 * @param inlineResultThreshold
+	 */
+	public void setInlineResultThreshold(long inlineResultThreshold) {
+		this.inlineResultThreshold = inlineResultThreshold;
+	}
+
+	/**
+	 * gets largest pageLength for which tuple query results are parsed on the calling thread
+	 *
+	 * @return long
+	 */
+	public long getInlineResultThreshold() {
+		return this.inlineResultThreshold;
+	}
+
+	/**
+	 * sets page length tuple query results are read in, 0 (the default) reading the
+	 * whole result in one request; with a page length, each page is a request of
+	 * its own, the next page being read on a result thread while the current one
+	 * is consumed, so at most two pages are held in memory
+	 *
+	 * queries evaluated with an explicit pageLength, or with inline results, are
+	 * not paged, nor are queries whose results go through the query result cache,
+	 * which holds whole results; as pages are separate requests, writes between them
+	 * may shift rows across pages, and queries without ORDER BY have no guaranteed order
+	 *
+	 * @param resultPageLength
+	 */
+	public void setResultPageLength(long resultPageLength) {
+		if (resultPageLength < 0) {
+			throw new IllegalArgumentException("resultPageLength must not be negative.");
+		}
+		this.resultPageLength = resultPageLength;
+	}
+
+	/**
+	 * gets page length tuple query results are read in, 0 if results are read in one request
+	 *
+	 * @return long
+	 */
+	public long getResultPageLength() {
+		return this.resultPageLength;
+	}
+
+	/**
+	 * sets the executor query results are parsed on, see newResultExecutor()
+	 *
+	 * @param executor
+	 */
+	public void setResultExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * gets the executor query results are parsed on
+	 *
+	 * @return Executor
+	 */
+	public Executor getResultExecutor() {
+		if (this.executor == null) {
+			return getDefaultExecutor();
+		}
+		return this.executor;
+	}
+
+	/**
+	 * sets the executor write cache flushes are sent on, see newFlushExecutor()
+	 *
+	 * @param flushExecutor
+	 */
+	public void setFlushExecutor(Executor flushExecutor) {
+		this.flushExecutor = flushExecutor;
+	}
+
+	/**
+	 * gets the executor write cache flushes are sent on
+	 *
+	 * @return Executor
+	 */
+	public Executor getFlushExecutor() {
+		if (this.flushExecutor == null) {
+			return getDefaultFlushExecutor();
+		}
+		return this.flushExecutor;
+	}
+
+	/**
+	 * sets the scheduler write cache staleness checks run on, must be set before initTimer()
+	 *
+	 * @param scheduler
+	 */
+	public void setScheduledExecutor(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * gets the scheduler write cache staleness checks run on
+	 *
+	 * @return ScheduledExecutorService
+	 */
+	public ScheduledExecutorService getScheduledExecutor() {
+		if (this.scheduler == null) {
+			return getDefaultScheduler();
+		}
+		return this.scheduler;
+	}
+
     /**
-     * start Timer task (write cache)
+     * start Timer task (write cache), scheduled on getScheduledExecutor()
      */
-	public void initTimer(){
-        if(this.WRITE_CACHE_ENABLED) {
-            this.cache = new WriteCacheTimerTask(this);
-            this.timer = new Timer();
-            this.timer.scheduleAtFixedRate(cache, WriteCacheTimerTask.DEFAULT_INITIAL_DELAY, WriteCacheTimerTask.DEFAULT_CACHE_MILLIS);
+	public synchronized void initTimer(){
+        this.timerStarted = true;
+        if(this.writeCacheEnabled && this.cache == null) {
+            WriteCacheTimerTask cache = new WriteCacheTimerTask(this);
+            cache.setCacheSize(cacheSize);
+            cache.setCacheByteSize(cacheByteSize);
+            cache.setMaxInFlight(cacheMaxInFlight);
+            this.cacheFuture = getScheduledExecutor().scheduleAtFixedRate(cache, WriteCacheTimerTask.DEFAULT_INITIAL_DELAY, WriteCacheTimerTask.DEFAULT_CACHE_MILLIS, TimeUnit.MILLISECONDS);
+            this.cache = cache;
         }
     }
 
     /**
      * stop Timer task (write cache)
      */
-	public void stopTimer() {
-        if(this.WRITE_CACHE_ENABLED) {
+	public synchronized void stopTimer() {
+        this.timerStarted = false;
+        if(this.cache != null) {
             cache.cancel();
-            timer.cancel();
+            if (cacheFuture != null) {
+                cacheFuture.cancel(false);
+                cacheFuture = null;
+            }
+            this.cache = null;
         }
     }
 
+	/**
+	 * sets if single triple adds are cached and sent in batches; disabling
+	 * flushes and stops a running write cache
+	 *
+	 * @param writeCacheEnabled
+	 * @throws MarkLogicSesameException
+	 */
+	public synchronized void setWriteCacheEnabled(boolean writeCacheEnabled) throws MarkLogicSesameException {
+		if (this.writeCacheEnabled == writeCacheEnabled) {
+			return;
+		}
+		this.writeCacheEnabled = writeCacheEnabled;
+		if (!timerStarted) {
+			return;
+		}
+		if (writeCacheEnabled) {
+			initTimer();
+		} else {
+			sync();
+			stopTimer();
+			this.timerStarted = true;
+		}
+	}
+
+	/**
+	 * returns if single triple adds are cached and sent in batches
+	 *
+	 * @return boolean
+	 */
+	public boolean isWriteCacheEnabled() {
+		return this.writeCacheEnabled;
+	}
+
+	/**
+	 * sets maximum number of statements sent in one INSERT DATA when
+	 * adding a collection of statements with the write cache disabled
+	 *
+	 * @param addBatchSize
+	 */
+	public void setAddBatchSize(int addBatchSize) {
+		if (addBatchSize < 1) {
+			throw new IllegalArgumentException("addBatchSize must be at least 1.");
+		}
+		this.addBatchSize = addBatchSize;
+	}
+
+	/**
+	 * returns maximum number of statements sent in one INSERT DATA
+	 *
+	 * @return int
+	 */
+	public int getAddBatchSize() {
+		return this.addBatchSize;
+	}
+
+	/**
+	 * sets maximum number of statements sent in one DELETE DATA when
+	 * removing a collection of statements
+	 *
+	 * @param removeBatchSize
+	 */
+	public void setRemoveBatchSize(int removeBatchSize) {
+		if (removeBatchSize < 1) {
+			throw new IllegalArgumentException("removeBatchSize must be at least 1.");
+		}
+		this.removeBatchSize = removeBatchSize;
+	}
+
+	/**
+	 * returns maximum number of statements sent in one DELETE DATA
+	 *
+	 * @return int
+	 */
+	public int getRemoveBatchSize() {
+		return this.removeBatchSize;
+	}
+
+	/**
+	 * sets milliseconds allowed to connect when adding from a url
+	 *
+	 * @param urlConnectTimeout
+	 */
+	public void setURLConnectTimeout(int urlConnectTimeout) {
+		this.urlConnectTimeout = urlConnectTimeout;
+	}
+
+	/**
+	 * returns milliseconds allowed to connect when adding from a url
+	 *
+	 * @return int
+	 */
+	public int getURLConnectTimeout() {
+		return this.urlConnectTimeout;
+	}
+
+	/**
+	 * sets milliseconds allowed between reads when adding from a url
+	 *
+	 * @param urlReadTimeout
+	 */
+	public void setURLReadTimeout(int urlReadTimeout) {
+		this.urlReadTimeout = urlReadTimeout;
+	}
+
+	/**
+	 * returns milliseconds allowed between reads when adding from a url
+	 *
+	 * @return int
+	 */
+	public int getURLReadTimeout() {
+		return this.urlReadTimeout;
+	}
+
+	/**
+	 * sets if adding from an http url sends the ETag and Last-Modified of the last
+	 * load of the same url into the same contexts, skipping the add if unchanged;
+	 * a load in a transaction only counts once the transaction commits
+	 *
+	 * @param urlConditionalGet
+	 */
+	public void setURLConditionalGet(boolean urlConditionalGet) {
+		this.urlConditionalGet = urlConditionalGet;
+	}
+
+	/**
+	 * returns true if adding from an http url skips unchanged content
+	 *
+	 * @return boolean
+	 */
+	public boolean isURLConditionalGet() {
+		return this.urlConditionalGet;
+	}
+
+	/**
+	 * sets if triples added are uploaded with gzip Content-Encoding, including
+	 * write cache flushes; only enable if MarkLogic, or a proxy in front of it,
+	 * accepts gzip encoded request bodies
+	 *
+	 * @param compressUploads
+	 * @throws IllegalStateException if the DatabaseClient http client cannot compress requests
+	 */
+	public void setCompressUploads(boolean compressUploads) {
+		if (compressUploads && !GzipUploadInterceptor.install(getDatabaseClient())) {
+			throw new IllegalStateException("DatabaseClient does not support compressing requests.");
+		}
+		this.compressUploads = compressUploads;
+	}
+
+	/**
+	 * returns true if triples added are uploaded with gzip Content-Encoding
+	 *
+	 * @return boolean
+	 */
+	public boolean isCompressUploads() {
+		return this.compressUploads;
+	}
+
+	/**
+	 * sets maximum number of query results cached, 0 (the default) disabling the cache;
+	 * results of cached queries are parsed inline, so this suits small, often repeated results
+	 *
+	 * @param queryResultCacheSize
+	 */
+	public void setQueryResultCacheSize(int queryResultCacheSize) {
+		queryCache.setMaxSize(queryResultCacheSize);
+	}
+
+	/**
+	 * returns maximum number of query results cached
+	 *
+	 * @return int
+	 */
+	public int getQueryResultCacheSize() {
+		return queryCache.getMaxSize();
+	}
+
+	/**
+	 * sets how long query results are cached; writes by this client, or clients copied
+	 * from it, invalidate results sooner, but writes by others are only seen once expired
+	 *
+	 * @param queryResultCacheMillis
+	 */
+	public void setQueryResultCacheMillis(long queryResultCacheMillis) {
+		queryCache.setMaxAgeMillis(queryResultCacheMillis);
+	}
+
+	/**
+	 * returns how long query results are cached
+	 *
+	 * @return long
+	 */
+	public long getQueryResultCacheMillis() {
+		return queryCache.getMaxAgeMillis();
+	}
+
+	/**
+	 * returns number of queries answered from the result cache
+	 *
+	 * @return long
+	 */
+	public long getQueryResultCacheHits() {
+		return queryCache.getHits();
+	}
+
+	/**
+	 * returns number of queries looked up in the result cache but sent to MarkLogic
+	 *
+	 * @return long
+	 */
+	public long getQueryResultCacheMisses() {
+		return queryCache.getMisses();
+	}
+
+	/**
+	 * removes all cached query results
+	 */
+	public void clearQueryResultCache() {
+		queryCache.clear();
+	}
+
+	/**
+	 * sets how long triple counts of graphs are reused by sendSize and sendIsEmpty, 0 (the
+	 * default) counting on every call; writes by this client, or clients copied from it,
+	 * are accounted for, but writes by others are only seen once counts are reread
+	 *
+	 * @param countCacheMillis
+	 */
+	public void setCountCacheMillis(long countCacheMillis) {
+		counts.setMaxAgeMillis(countCacheMillis);
+	}
+
+	/**
+	 * returns how long triple counts of graphs are reused
+	 *
+	 * @return long
+	 */
+	public long getCountCacheMillis() {
+		return counts.getMaxAgeMillis();
+	}
+
+	/**
+	 * lazily creates the result executor shared by clients not given one
+	 *
+	 * @return ExecutorService
+	 */
+	private static synchronized ExecutorService getDefaultExecutor() {
+		if (defaultExecutor == null) {
+			defaultExecutor = newResultExecutor(DEFAULT_RESULT_THREADS, DEFAULT_RESULT_QUEUE_LENGTH, null, false);
+		}
+		return defaultExecutor;
+	}
+
+	/**
+	 * lazily creates the flush executor shared by clients not given one
+	 *
+	 * @return ExecutorService
+	 */
+	private static synchronized ExecutorService getDefaultFlushExecutor() {
+		if (defaultFlushExecutor == null) {
+			defaultFlushExecutor = newFlushExecutor(DEFAULT_FLUSH_THREADS);
+		}
+		return defaultFlushExecutor;
+	}
+
+	/**
+	 * lazily creates the scheduler shared by clients not given one
+	 *
+	 * @return ScheduledExecutorService
+	 */
+	private static synchronized ScheduledExecutorService getDefaultScheduler() {
+		if (defaultScheduler == null) {
+			defaultScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("marklogic-sesame-scheduler", true));
+		}
+		return defaultScheduler;
+	}
+
     /**
      *  forces write cache to flush triples
      *
      * @throws MarkLogicSesameException
      */
     public void sync() throws MarkLogicSesameException {
-        if(WRITE_CACHE_ENABLED) cache.forceRun();
+        WriteCacheTimerTask cache = this.cache;
+        if(cache != null) cache.forceRun();
     }
 
+	/**
+	 * sets maximum number of triples held in write cache before it is flushed
+	 *
+	 * @param cacheSize
+	 */
+	public void setWriteCacheSize(long cacheSize) {
+		this.cacheSize = cacheSize;
+		if (cache != null) cache.setCacheSize(cacheSize);
+	}
+
+	/**
+	 * gets maximum number of triples held in write cache before it is flushed
+	 *
+	 * @return
+	 */
+	public long getWriteCacheSize() {
+		return this.cacheSize;
+	}
+
+	/**
+	 * sets maximum (approximate) size in bytes of write cache before it is flushed
+	 *
+	 * @param cacheByteSize
+	 */
+	public void setWriteCacheByteSize(long cacheByteSize) {
+		this.cacheByteSize = cacheByteSize;
+		if (cache != null) cache.setCacheByteSize(cacheByteSize);
+	}
+
+	/**
+	 * gets maximum (approximate) size in bytes of write cache before it is flushed
+	 *
+	 * @return
+	 */
+	public long getWriteCacheByteSize() {
+		return this.cacheByteSize;
+	}
+
+	/**
+	 * sets maximum number of write cache flushes sent concurrently
+	 *
+	 * @param cacheMaxInFlight
+	 */
+	public void setWriteCacheMaxInFlight(int cacheMaxInFlight) {
+		if (cache != null) cache.setMaxInFlight(cacheMaxInFlight);
+		this.cacheMaxInFlight = cacheMaxInFlight;
+	}
+
+	/**
+	 * gets maximum number of write cache flushes sent concurrently
+	 *
+	 * @return
+	 */
+	public int getWriteCacheMaxInFlight() {
+		return this.cacheMaxInFlight;
+	}
+
 	/**
 	 * get value factory
 	 *
@@ -151,6 +806,18 @@ public class MarkLogicClient {
 		this.f=f;
 	}
 
+	/**
+	 * returns true if a binding of value is sent to MarkLogic as a typed server side
+	 * binding, leaving the query string unchanged; other values, such as literals of
+	 * datatypes MarkLogic does not bind, must be inlined in the query string
+	 *
+	 * @param value
+	 * @return boolean
+	 */
+	public static boolean isServerBindable(Value value) {
+		return MarkLogicClientImpl.isBindable(value);
+	}
+
 	/**
 	 * TupleQuery
 	 *
@@ -168,28 +835,190 @@ public class MarkLogicClient {
 	 * @throws QueryInterruptedException
 	 */
 	public TupleQueryResult sendTupleQuery(String queryString,SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI) throws IOException, RepositoryException, MalformedQueryException, UnauthorizedException,
+    QueryInterruptedException {
+		return sendTupleQuery(queryString, bindings, start, pageLength, includeInferred, baseURI, false);
+	}
+
+	/**
+	 * TupleQuery, parsing results on the calling thread if inline is set or
+	 * pageLength is no more than the inline result threshold
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param inline
+	 * @return
+	 * @throws IOException
+	 * @throws RepositoryException
+	 * @throws MalformedQueryException
+	 * @throws UnauthorizedException
+	 * @throws QueryInterruptedException
+	 */
+	public TupleQueryResult sendTupleQuery(String queryString,SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, boolean inline) throws IOException, RepositoryException, MalformedQueryException, UnauthorizedException,
     QueryInterruptedException {
 		sync();
-		InputStream stream = getClient().performSPARQLQuery(queryString, bindings, start, pageLength, this.tx, includeInferred, baseURI);
+		String key = cacheKey("tuple", queryString, bindings, start, pageLength, includeInferred, baseURI);
+		if (key == null) {
+			if (pageLength <= 0 && resultPageLength > 0 && !inline) {
+				return new MarkLogicPagedTupleResult(this, queryString, bindings, start, resultPageLength, includeInferred, baseURI, this.tx);
+			}
+			return evaluateTupleQuery(queryString, bindings, start, pageLength, includeInferred, baseURI, inline);
+		}
+		QueryResultCache.TupleResult cached = (QueryResultCache.TupleResult) queryCache.get(key);
+		if (cached == null) {
+			long generation = queryCache.generation();
+			TupleQueryResult result = evaluateTupleQuery(queryString, bindings, start, pageLength, includeInferred, baseURI, true);
+			try {
+				cached = new QueryResultCache.TupleResult(result.getBindingNames(), Iterations.asList(result));
+			} catch (QueryEvaluationException e) {
+				MarkLogicSesameException mle = new MarkLogicSesameException(e.getMessage());
+				mle.initCause(e);
+				throw mle;
+			}
+			queryCache.put(key, queryString, baseURI, cached, generation);
+		}
+		return new TupleQueryResultImpl(cached.bindingNames, cached.bindingSets);
+	}
+
+	/**
+	 * evaluates TupleQuery, after the write cache has been flushed
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param inline
+	 * @return
+	 * @throws IOException
+	 * @throws MarkLogicSesameException
+	 */
+	private TupleQueryResult evaluateTupleQuery(String queryString,SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, boolean inline) throws IOException, MarkLogicSesameException {
+		return evaluateTupleQuery(queryString, bindings, start, pageLength, includeInferred, baseURI, inline, this.tx);
+	}
+
+	/**
+	 * reads a page of TupleQuery results, parsed on the calling thread, in transaction tx
+	 * rather than the current one, as pages may be read after the transaction changes
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param tx
+	 * @return
+	 * @throws IOException
+	 * @throws MarkLogicSesameException
+	 */
+	TupleQueryResult readPage(String queryString, SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, Transaction tx) throws IOException, MarkLogicSesameException {
+		return evaluateTupleQuery(queryString, bindings, start, pageLength, includeInferred, baseURI, true, tx);
+	}
+
+	/**
+	 * evaluates TupleQuery in transaction tx
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param inline
+	 * @param tx
+	 * @return
+	 * @throws IOException
+	 * @throws MarkLogicSesameException
+	 */
+	private TupleQueryResult evaluateTupleQuery(String queryString,SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, boolean inline, Transaction tx) throws IOException, MarkLogicSesameException {
+		InputStream stream = getClient().performSPARQLQuery(queryString, bindings, start, pageLength, tx, includeInferred, baseURI);
 		TupleQueryResultParser parser = QueryResultIO.createParser(format, getValueFactory());
+		if (inline || pageLength > 0 && pageLength <= inlineResultThreshold) {
+			TupleQueryResultBuilder builder = new TupleQueryResultBuilder();
+			parser.setQueryResultHandler(builder);
+			try {
+				parser.parseQueryResult(stream);
+			} catch (QueryResultParseException | QueryResultHandlerException e) {
+				MarkLogicSesameException mle = new MarkLogicSesameException(e.getMessage());
+				mle.initCause(e);
+				throw mle;
+			} finally {
+				stream.close();
+			}
+			return builder.getQueryResult();
+		}
 		MarkLogicBackgroundTupleResult tRes = new MarkLogicBackgroundTupleResult(parser,stream);
-		execute(tRes);
+		executeResult(tRes, stream);
 		return tRes;
 	}
 
 	/**
-	 * GraphQuery
+	 * GraphQuery
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param includeInferred
+	 * @param baseURI
+	 * @return
+	 * @throws IOException
+	 */
+	public GraphQueryResult sendGraphQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI) throws IOException {
+		return sendGraphQuery(queryString, bindings, includeInferred, baseURI, false);
+	}
+
+	/**
+	 * GraphQuery, parsing results on the calling thread if inline is set
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param inline
+	 * @return
+	 * @throws IOException
+	 */
+	public GraphQueryResult sendGraphQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI, boolean inline) throws IOException {
+        try {
+            sync();
+        } catch (MarkLogicSesameException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        String key = cacheKey("graph", queryString, bindings, 0, 0, includeInferred, baseURI);
+        if (key == null) {
+            return evaluateGraphQuery(queryString, bindings, includeInferred, baseURI, inline);
+        }
+        QueryResultCache.GraphResult cached = (QueryResultCache.GraphResult) queryCache.get(key);
+        if (cached == null) {
+            long generation = queryCache.generation();
+            GraphQueryResult result = evaluateGraphQuery(queryString, bindings, includeInferred, baseURI, true);
+            try {
+                cached = new QueryResultCache.GraphResult(result.getNamespaces(), Iterations.asList(result));
+            } catch (QueryEvaluationException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            queryCache.put(key, queryString, baseURI, cached, generation);
+        }
+        return new GraphQueryResultImpl(cached.namespaces, cached.statements);
+    }
+
+	/**
+	 * evaluates GraphQuery, after the write cache has been flushed
 	 *
 	 * @param queryString
 	 * @param bindings
 	 * @param includeInferred
 	 * @param baseURI
+	 * @param inline
 	 * @return
 	 * @throws IOException
 	 */
-	public GraphQueryResult sendGraphQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI) throws IOException {
+	private GraphQueryResult evaluateGraphQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI, boolean inline) throws IOException {
         try {
-            sync();
             InputStream stream = getClient().performGraphQuery(queryString, bindings, this.tx, includeInferred, baseURI);
 
             RDFParser parser = Rio.createParser(rdfFormat, getValueFactory());
@@ -197,22 +1026,31 @@ public class MarkLogicClient {
             parser.setParseErrorListener(new ParseErrorLogger());
             parser.setPreserveBNodeIDs(true);
 
-            MarkLogicBackgroundGraphResult gRes;
-
             // fixup - baseURI cannot be null
-            if(baseURI != null){
-                gRes= new MarkLogicBackgroundGraphResult(parser,stream,charset,baseURI);
-            }else{
-                gRes= new MarkLogicBackgroundGraphResult(parser,stream,charset,"");
+            if (baseURI == null) {
+                baseURI = "";
+            }
+
+            if (inline) {
+                StatementCollector collector = new StatementCollector();
+                parser.setRDFHandler(collector);
+                try {
+                    parser.parse(new InputStreamReader(stream, charset), baseURI);
+                } catch (RDFParseException | RDFHandlerException e) {
+                    throw new IOException(e.getMessage(), e);
+                } finally {
+                    stream.close();
+                }
+                return new GraphQueryResultImpl(collector.getNamespaces(), collector.getStatements());
             }
 
-            execute(gRes);
+            MarkLogicBackgroundGraphResult gRes = new MarkLogicBackgroundGraphResult(parser,stream,charset,baseURI);
+            executeResult(gRes, stream);
             return gRes;
 
         } catch (MarkLogicSesameException e) {
-            e.printStackTrace();
+            throw new IOException(e.getMessage(), e);
         }
-        return null;
     }
 
 	/**
@@ -232,7 +1070,17 @@ public class MarkLogicClient {
 	public boolean sendBooleanQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI) throws IOException, RepositoryException, MalformedQueryException, UnauthorizedException,
     QueryInterruptedException {
         sync();
-		return getClient().performBooleanQuery(queryString, bindings, this.tx, includeInferred, baseURI);
+		String key = cacheKey("boolean", queryString, bindings, 0, 0, includeInferred, baseURI);
+		if (key == null) {
+			return getClient().performBooleanQuery(queryString, bindings, this.tx, includeInferred, baseURI);
+		}
+		Boolean cached = (Boolean) queryCache.get(key);
+		if (cached == null) {
+			long generation = queryCache.generation();
+			cached = getClient().performBooleanQuery(queryString, bindings, this.tx, includeInferred, baseURI);
+			queryCache.put(key, queryString, baseURI, cached, generation);
+		}
+		return cached;
 	}
 
 	/**
@@ -251,36 +1099,143 @@ public class MarkLogicClient {
 	public void sendUpdateQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI) throws IOException, RepositoryException, MalformedQueryException, UnauthorizedException,
     UpdateExecutionException {
 		sync();
-		getClient().performUpdateQuery(queryString, bindings, this.tx, includeInferred, baseURI);
+		try {
+			getClient().performUpdateQuery(queryString, bindings, this.tx, includeInferred, baseURI);
+		} finally {
+			written(null);
+		}
+	}
+
+	/**
+	 * returns number of triples in every graph
+	 *
+	 * @return long
+	 * @throws MarkLogicSesameException
+	 */
+	public long sendSize() throws MarkLogicSesameException {
+		return count(null);
+	}
+
+	/**
+	 * returns number of triples in contexts, the null context being the default graph
+	 *
+	 * @param contexts
+	 * @return long
+	 * @throws MarkLogicSesameException
+	 */
+	public long sendSize(Resource... contexts) throws MarkLogicSesameException {
+		return count(QueryResultCache.graphsOf(contexts));
+	}
+
+	/**
+	 * returns true if there are no triples, asking MarkLogic for any triple unless
+	 * counts are known
+	 *
+	 * @return boolean
+	 * @throws MarkLogicSesameException
+	 */
+	public boolean sendIsEmpty() throws MarkLogicSesameException {
+		sync();
+		if (counts.isEnabled() && !isActiveTransaction()) {
+			Long total = counts.get(null);
+			if (total != null) {
+				return total == 0;
+			}
+		}
+		return !getClient().performUnconstrainedAsk(ANY_TRIPLE, this.tx);
 	}
 
 	/**
-	 * add triples from file
+	 * add triples from file, gzip or zip compressed files are decompressed as read
 	 *
 	 * @param file
 	 * @param baseURI
 	 * @param dataFormat
 	 * @param contexts
+	 * @throws IOException
 	 * @throws RDFParseException
 	 */
-    public void sendAdd(File file, String baseURI, RDFFormat dataFormat, Resource... contexts) throws RDFParseException {
-        getClient().performAdd(file, baseURI, dataFormat, this.tx, contexts);
+    public void sendAdd(File file, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException {
+        if (CompressedInput.isCompressed(file)) {
+            try (InputStream in = new FileInputStream(file)) {
+                sendAdd(in, baseURI, dataFormat != null ? dataFormat : Rio.getParserFormatForFileName(file.getName()), contexts);
+            }
+            return;
+        }
+        boolean previous = GzipUploadInterceptor.begin(compressUploads);
+        try {
+            getClient().performAdd(file, baseURI, dataFormat, this.tx, contexts);
+        } finally {
+            GzipUploadInterceptor.end(previous);
+            written(graphsOf(dataFormat, contexts));
+        }
     }
 
 	/**
-	 * add triples from InputStream
+	 * add triples from InputStream, gzip compressed streams are decompressed as read
+	 * and each entry of a zip archive is added, in the format matching its name if
+	 * dataFormat is not given
 	 *
 	 * @param in
 	 * @param baseURI
 	 * @param dataFormat
 	 * @param contexts
+	 * @throws IOException
+	 * @throws RDFParseException
+	 */
+	public void sendAdd(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException {
+		in = CompressedInput.markable(in);
+		if (CompressedInput.isZip(in)) {
+			sendZip(new ZipInputStream(in), baseURI, dataFormat, contexts);
+			return;
+		}
+		if (CompressedInput.isGZip(in)) {
+			in = new GZIPInputStream(in);
+		}
+		if (dataFormat == null) {
+			throw new RDFParseException("Format of InputStream must be given.");
+		}
+		boolean previous = GzipUploadInterceptor.begin(compressUploads);
+		try {
+			getClient().performAdd(in, baseURI, dataFormat, this.tx, contexts);
+		} finally {
+			GzipUploadInterceptor.end(previous);
+			written(graphsOf(dataFormat, contexts));
+		}
+	}
+
+	/**
+	 * add triples from each entry of a zip archive
+	 *
+	 * @param zip
+	 * @param baseURI
+	 * @param dataFormat  format of entries with no recognised file extension
+	 * @param contexts
+	 * @throws IOException
+	 * @throws RDFParseException
 	 */
-	public void sendAdd(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws RDFParseException{
-        getClient().performAdd(in, baseURI, dataFormat, this.tx, contexts);
+	private void sendZip(ZipInputStream zip, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException {
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.isDirectory()) {
+					continue;
+				}
+				RDFFormat format = Rio.getParserFormatForFileName(entry.getName(), dataFormat);
+				if (format == null) {
+					throw new RDFParseException("Could not determine format of zip entry " + entry.getName() + ".");
+				}
+				// entries are added one by one, so each must not close the archive
+				sendAdd(new CloseShieldInputStream(zip), baseURI, format, contexts);
+				zip.closeEntry();
+			}
+		} finally {
+			zip.close();
+		}
 	}
 
 	/**
-	 * add triples from Reader
+	 * add triples from Reader, encoded as UTF-8 while streamed to MarkLogic
 	 *
 	 * @param in
 	 * @param baseURI
@@ -288,8 +1243,133 @@ public class MarkLogicClient {
 	 * @param contexts
 	 */
 	public void sendAdd(Reader in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws RDFParseException{
-		//TBD- must deal with char encoding
-        getClient().performAdd(new ReaderInputStream(in), baseURI, dataFormat, this.tx, contexts);
+		// rdf text formats are UTF-8, whatever the platform default
+		boolean previous = GzipUploadInterceptor.begin(compressUploads);
+		try {
+			getClient().performAdd(new ReaderSender(in, UTF8), baseURI, dataFormat, this.tx, contexts);
+		} finally {
+			GzipUploadInterceptor.end(previous);
+			written(graphsOf(dataFormat, contexts));
+		}
+	}
+
+	/**
+	 * add triples from url, streaming the download straight into the request and
+	 * decoding gzip or deflate content encoding; format is taken from the response
+	 * content type or url file name if not given
+	 *
+	 * @param url
+	 * @param baseURI
+	 * @param dataFormat
+	 * @param contexts
+	 * @return false if skipped as unchanged since last loaded
+	 * @throws IOException
+	 * @throws RDFParseException
+	 */
+	public boolean sendAdd(URL url, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException {
+		URLConnection conn = url.openConnection();
+		conn.setConnectTimeout(urlConnectTimeout);
+		conn.setReadTimeout(urlReadTimeout);
+		conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		if (dataFormat != null) {
+			conn.setRequestProperty("Accept", dataFormat.getDefaultMIMEType());
+		}
+		String key = url + " " + baseURI + " " + dataFormat + " " + Arrays.toString(contexts);
+		boolean conditional = urlConditionalGet && conn instanceof HttpURLConnection;
+		if (conditional) {
+			String[] validators = isActiveTransaction() ? txValidators.get(key) : null;
+			if (validators == null) {
+				validators = urlValidators.get(key);
+			}
+			if (validators != null) {
+				if (validators[0] != null) conn.setRequestProperty("If-None-Match", validators[0]);
+				if (validators[1] != null) conn.setRequestProperty("If-Modified-Since", validators[1]);
+			}
+		}
+		if (conn instanceof HttpURLConnection) {
+			HttpURLConnection http = (HttpURLConnection) conn;
+			int status = http.getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				logger.debug("{} not modified since last loaded, skipping", url);
+				http.disconnect();
+				return false;
+			}
+			if (status >= 400) {
+				http.disconnect();
+				throw new IOException("Request for " + url + " failed with status " + status + ".");
+			}
+		}
+		try (InputStream in = decode(conn.getInputStream(), conn.getContentEncoding())) {
+			RDFFormat format = dataFormat != null ? dataFormat : formatOf(url, conn.getContentType());
+			sendAdd(in, baseURI, format, contexts);
+		}
+		if (conditional) {
+			String etag = conn.getHeaderField("ETag");
+			String lastModified = conn.getHeaderField("Last-Modified");
+			if (etag != null || lastModified != null) {
+				if (isActiveTransaction()) {
+					txValidators.put(key, new String[]{etag, lastModified});
+				} else {
+					urlValidators.put(key, new String[]{etag, lastModified});
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * add quads streamed by an OutputStreamSender
+	 *
+	 * @param sender
+	 * @param dataFormat
+	 */
+	public void sendAdd(OutputStreamSender sender, RDFFormat dataFormat) throws RDFParseException{
+		sendAdd(sender, dataFormat, null);
+	}
+
+	/**
+	 * add quads streamed by an OutputStreamSender into known graphs
+	 *
+	 * @param sender
+	 * @param dataFormat
+	 * @param graphs  uris of graphs written, null if not known
+	 */
+	void sendAdd(OutputStreamSender sender, RDFFormat dataFormat, Set<String> graphs) throws RDFParseException{
+		boolean previous = GzipUploadInterceptor.begin(compressUploads);
+		try {
+			getClient().performAdd(sender, dataFormat, this.tx);
+		} finally {
+			GzipUploadInterceptor.end(previous);
+			written(graphs);
+		}
+	}
+
+	/**
+	 * add one part of a bulk load, outside of any transaction
+	 *
+	 * @param sender
+	 * @param dataFormat
+	 * @param contexts
+	 */
+	void sendBulkAdd(OutputStreamSender sender, RDFFormat dataFormat, Resource... contexts) {
+		boolean previous = GzipUploadInterceptor.begin(compressUploads);
+		try {
+			getClient().performBulkAdd(sender, dataFormat, contexts);
+		} finally {
+			GzipUploadInterceptor.end(previous);
+			written(graphsOf(dataFormat, contexts));
+		}
+	}
+
+	/**
+	 * returns a loader uploading large inputs in parts concurrently; N-Triples and
+	 * N-Quads files are split by line, other formats such as Turtle, RDF/XML and TriG,
+	 * and streams, are parsed into batches of statements
+	 *
+	 * @return MarkLogicBulkLoader
+	 */
+	public MarkLogicBulkLoader newBulkLoader() {
+		return new MarkLogicBulkLoader(this);
 	}
 
 	/**
@@ -302,13 +1382,52 @@ public class MarkLogicClient {
 	 * @param contexts
 	 */
 	public void sendAdd(String baseURI, Resource subject, URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
-        if (WRITE_CACHE_ENABLED) {
+        WriteCacheTimerTask cache = this.cache;
+        if (cache != null) {
 			cache.add(subject, predicate, object, contexts);
         } else {
-            getClient().performAdd(baseURI, (Resource) skolemize(subject), (URI) skolemize(predicate), skolemize(object), this.tx, contexts);
+            try {
+                getClient().performAdd(baseURI, (Resource) skolemize(subject), (URI) skolemize(predicate), skolemize(object), this.tx, contexts);
+            } finally {
+                written(QueryResultCache.graphsOf(contexts));
+            }
         }
     }
 
+	/**
+	 * add statements, each to its own context (null being the default graph); if
+	 * cache is enabled statements are added to cache model, otherwise they are sent
+	 * as INSERT DATA requests of up to addBatchSize statements
+	 *
+	 * @param baseURI
+	 * @param statements
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendAdd(String baseURI, Collection<? extends Statement> statements) throws MarkLogicSesameException {
+		WriteCacheTimerTask cache = this.cache;
+		if (cache != null) {
+			for (Statement st : statements) {
+				cache.add(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+			}
+			return;
+		}
+		List<Statement> batch = new ArrayList<Statement>(Math.min(statements.size(), addBatchSize));
+		try {
+			for (Statement st : statements) {
+				batch.add(getValueFactory().createStatement((Resource) skolemize(st.getSubject()), st.getPredicate(), skolemize(st.getObject()), (Resource) skolemize(st.getContext())));
+				if (batch.size() >= addBatchSize) {
+					getClient().performAdd(baseURI, batch, this.tx);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				getClient().performAdd(baseURI, batch, this.tx);
+			}
+		} finally {
+			written(QueryResultCache.graphsOf(statements));
+		}
+	}
+
 	/**
 	 * remove single triple
 	 *
@@ -319,10 +1438,70 @@ public class MarkLogicClient {
 	 * @param contexts
 	 */
 	public void sendRemove(String baseURI, Resource subject,URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
+        WriteCacheTimerTask cache = this.cache;
+        if (cache != null && subject != null && predicate != null && object != null && (contexts == null || contexts.length <= 1)) {
+            cache.remove(subject, predicate, object, contexts);
+            return;
+        }
 		sync();
-        getClient().performRemove(baseURI, (Resource) skolemize(subject), (URI) skolemize(predicate), skolemize(object), this.tx, contexts);
+        try {
+            getClient().performRemove(baseURI, (Resource) skolemize(subject), (URI) skolemize(predicate), skolemize(object), this.tx, contexts);
+        } finally {
+            // no contexts removes from every graph
+            written(contexts == null || contexts.length == 0 ? null : QueryResultCache.graphsOf(contexts));
+        }
     }
 
+	/**
+	 * removes then adds statements in a single update, used by the write cache
+	 *
+	 * @param removes  statements removed from their context, null being the default graph
+	 * @param anyGraphRemoves  statements removed from every graph
+	 * @param adds  statements added to their context
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendChanges(Collection<? extends Statement> removes, Collection<? extends Statement> anyGraphRemoves, Collection<? extends Statement> adds) throws MarkLogicSesameException {
+		try {
+			getClient().performChanges(skolemize(removes), skolemize(anyGraphRemoves), skolemize(adds), this.tx);
+		} finally {
+			if (anyGraphRemoves.isEmpty()) {
+				Set<String> graphs = QueryResultCache.graphsOf(removes);
+				graphs.addAll(QueryResultCache.graphsOf(adds));
+				written(graphs);
+			} else {
+				written(null);
+			}
+		}
+	}
+
+	/**
+	 * remove statements from contexts, as sendRemove of a single triple does;
+	 * sent as requests of up to removeBatchSize statements
+	 *
+	 * @param baseURI
+	 * @param statements
+	 * @param contexts
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendRemove(String baseURI, Collection<? extends Statement> statements, Resource... contexts) throws MarkLogicSesameException {
+		sync();
+		List<Statement> batch = new ArrayList<Statement>(Math.min(statements.size(), removeBatchSize));
+		try {
+			for (Statement st : statements) {
+				batch.add(getValueFactory().createStatement((Resource) skolemize(st.getSubject()), st.getPredicate(), skolemize(st.getObject())));
+				if (batch.size() >= removeBatchSize) {
+					getClient().performRemove(baseURI, batch, this.tx, contexts);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				getClient().performRemove(baseURI, batch, this.tx, contexts);
+			}
+		} finally {
+			written(contexts == null || contexts.length == 0 ? null : QueryResultCache.graphsOf(contexts));
+		}
+	}
+
 	/**
 	 * clears all triples from context
 	 *
@@ -334,7 +1513,14 @@ public class MarkLogicClient {
         } catch (MarkLogicSesameException e) {
             e.printStackTrace();
         }
-        getClient().performClear(this.tx, contexts);
+        Set<String> graphs = QueryResultCache.graphsOf(contexts);
+        try {
+            getClient().performClear(this.tx, contexts);
+        } catch (RuntimeException e) {
+            written(graphs);
+            throw e;
+        }
+        cleared(graphs);
 	}
 
 	/**
@@ -347,7 +1533,13 @@ public class MarkLogicClient {
         } catch (MarkLogicSesameException e) {
             e.printStackTrace();
         }
-        getClient().performClearAll(this.tx);
+        try {
+            getClient().performClearAll(this.tx);
+        } catch (RuntimeException e) {
+            written(null);
+            throw e;
+        }
+        cleared(null);
 	}
 
 	/**
@@ -364,19 +1556,25 @@ public class MarkLogicClient {
 	}
 
 	/**
-	 * commits a transaction
+	 * commits a transaction, once the write cache is flushed into it
 	 *
-	 * @throws MarkLogicTransactionException
+	 * @throws MarkLogicTransactionException if flushing the write cache fails, the transaction being left open to roll back
 	 */
 	public void commitTransaction() throws MarkLogicTransactionException {
 		if (isActiveTransaction()) {
 			try {
 				sync();
 			} catch (MarkLogicSesameException e) {
-				e.printStackTrace();
+				MarkLogicTransactionException mte = new MarkLogicTransactionException("Transaction not committed, flushing write cache failed: " + e.getMessage());
+				mte.initCause(e);
+				throw mte;
 			}
 			this.tx.commit();
 			this.tx=null;
+			// other clients sharing the caches may have cached results from before the commit
+			written(null);
+			urlValidators.putAll(txValidators);
+			txValidators.clear();
 		}else{
 			throw new MarkLogicTransactionException("No active transaction to commit.");
 		}
@@ -385,17 +1583,24 @@ public class MarkLogicClient {
 	/**
 	 * rollback transaction
 	 *
-	 * @throws MarkLogicTransactionException
+	 * @throws MarkLogicTransactionException if flushing the write cache failed, after rolling back
 	 */
 	public void rollbackTransaction() throws MarkLogicTransactionException {
 		if(isActiveTransaction()) {
+			MarkLogicSesameException flushError = null;
 			try {
 				sync();
 			} catch (MarkLogicSesameException e) {
-				e.printStackTrace();
+				flushError = e;
 			}
 			this.tx.rollback();
 			this.tx = null;
+			txValidators.clear();
+			if (flushError != null) {
+				MarkLogicTransactionException mte = new MarkLogicTransactionException("Transaction rolled back, flushing write cache failed: " + flushError.getMessage());
+				mte.initCause(flushError);
+				throw mte;
+			}
 		}else{
 			throw new MarkLogicTransactionException("No active transaction to rollback.");
 		}
@@ -509,7 +1714,44 @@ public class MarkLogicClient {
 	 * @param command
 	 */
 	protected void execute(Runnable command) {
-		executor.execute(command);
+		getResultExecutor().execute(command);
+	}
+
+	/**
+	 * exec background result parsing, closing the result stream if the executor refuses it
+	 *
+	 * @param result
+	 * @param stream
+	 * @throws MarkLogicSesameException
+	 */
+	private void executeResult(Runnable result, InputStream stream) throws MarkLogicSesameException {
+		try {
+			execute(result);
+		} catch (RejectedExecutionException e) {
+			try {
+				stream.close();
+			} catch (IOException ioe) {
+				logger.debug("error closing rejected query result", ioe);
+			}
+			MarkLogicSesameException mle = new MarkLogicSesameException("Query result rejected, too many results open: " + e.getMessage());
+			mle.initCause(e);
+			throw mle;
+		}
+	}
+
+	/**
+	 * exec write cache flush, on the calling thread if the executor refuses it,
+	 * as once its repository is shut down, so cached writes are still sent
+	 *
+	 * @param command
+	 */
+	protected void executeFlush(Runnable command) {
+		try {
+			getFlushExecutor().execute(command);
+		} catch (RejectedExecutionException e) {
+			logger.debug("write cache flush rejected, sending on calling thread");
+			command.run();
+		}
 	}
 
 
@@ -525,6 +1767,245 @@ public class MarkLogicClient {
 		return this._client;
 	}
 
+	/**
+	 * wraps stream to decode content encoding
+	 *
+	 * @param in
+	 * @param contentEncoding
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	private static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return in;
+		}
+		String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			return new GZIPInputStream(in, 64 * 1024);
+		} else if (encoding.equals("deflate")) {
+			return new InflaterInputStream(in);
+		}
+		return in;
+	}
+
+	/**
+	 * returns format of url file name or, failing that, of response content type; file
+	 * name goes first as servers often send rdf files as text/plain
+	 *
+	 * @param url
+	 * @param contentType
+	 * @return RDFFormat
+	 * @throws RDFParseException if neither is a known format
+	 */
+	private static RDFFormat formatOf(URL url, String contentType) throws RDFParseException {
+		RDFFormat format = Rio.getParserFormatForFileName(url.getPath());
+		if (format == null && contentType != null) {
+			int params = contentType.indexOf(';');
+			format = Rio.getParserFormatForMIMEType((params < 0 ? contentType : contentType.substring(0, params)).trim());
+		}
+		if (format == null) {
+			throw new RDFParseException("Could not determine format of " + url + ", content type was " + contentType + ".");
+		}
+		return format;
+	}
+
+	/**
+	 * records triples written to graphs, invalidating cached results and counts
+	 *
+	 * @param graphs  graph uris, null for every graph
+	 */
+	private void written(Set<String> graphs) {
+		queryCache.invalidate(graphs);
+		counts.written(graphs);
+	}
+
+	/**
+	 * records graphs cleared; in a transaction the graphs are only empty for this client
+	 *
+	 * @param graphs  graph uris, null for every graph
+	 */
+	private void cleared(Set<String> graphs) {
+		queryCache.invalidate(graphs);
+		if (isActiveTransaction()) {
+			counts.written(graphs);
+		} else {
+			counts.cleared(graphs);
+		}
+	}
+
+	/**
+	 * returns number of triples in graphs, from counts if known, otherwise recounting
+	 * the graphs written since they were last counted, or every graph if counts are old
+	 *
+	 * @param graphs  graph uris, null for every graph
+	 * @return long
+	 * @throws MarkLogicSesameException
+	 */
+	private long count(Set<String> graphs) throws MarkLogicSesameException {
+		sync();
+		if (!counts.isEnabled() || isActiveTransaction()) {
+			return readCount(graphs);
+		}
+		Long total = counts.get(graphs);
+		if (total != null) {
+			return total;
+		}
+		long generation = counts.generation();
+		Set<String> refresh = counts.toRefresh(graphs);
+		if (refresh == null || !refresh.isEmpty()) {
+			counts.refreshed(readCounts(refresh), refresh, generation);
+		}
+		total = counts.get(graphs);
+		// a write since counting leaves counts unknown
+		return total != null ? total : readCount(graphs);
+	}
+
+	/**
+	 * reads number of triples in graphs from MarkLogic
+	 *
+	 * @param graphs  graph uris, null for every graph
+	 * @return long
+	 * @throws MarkLogicSesameException
+	 */
+	private long readCount(Set<String> graphs) throws MarkLogicSesameException {
+		TupleQueryResult result = selectUnconstrained(String.format(COUNT, graphFilter(graphs)));
+		try {
+			return ((Literal) result.next().getValue("ct")).longValue();
+		} catch (QueryEvaluationException e) {
+			MarkLogicSesameException mle = new MarkLogicSesameException(e.getMessage());
+			mle.initCause(e);
+			throw mle;
+		}
+	}
+
+	/**
+	 * reads number of triples in each graph from MarkLogic, graphs with no triples being left out
+	 *
+	 * @param graphs  graph uris, null for every graph
+	 * @return Map
+	 * @throws MarkLogicSesameException
+	 */
+	private Map<String, Long> readCounts(Set<String> graphs) throws MarkLogicSesameException {
+		TupleQueryResult result = selectUnconstrained(String.format(COUNT_BY_GRAPH, graphFilter(graphs)));
+		Map<String, Long> read = new HashMap<String, Long>();
+		try {
+			while (result.hasNext()) {
+				BindingSet bindings = result.next();
+				read.put(bindings.getValue("g").stringValue(), ((Literal) bindings.getValue("ct")).longValue());
+			}
+		} catch (QueryEvaluationException e) {
+			MarkLogicSesameException mle = new MarkLogicSesameException(e.getMessage());
+			mle.initCause(e);
+			throw mle;
+		}
+		return read;
+	}
+
+	/**
+	 * evaluates SELECT query, with no rulesets or constraining query, parsing results inline
+	 *
+	 * @param queryString
+	 * @return TupleQueryResult
+	 * @throws MarkLogicSesameException
+	 */
+	private TupleQueryResult selectUnconstrained(String queryString) throws MarkLogicSesameException {
+		InputStream stream = getClient().performUnconstrainedSelect(queryString, this.tx);
+		TupleQueryResultParser parser = QueryResultIO.createParser(format, getValueFactory());
+		TupleQueryResultBuilder builder = new TupleQueryResultBuilder();
+		parser.setQueryResultHandler(builder);
+		try {
+			parser.parseQueryResult(stream);
+		} catch (QueryResultParseException | QueryResultHandlerException | IOException e) {
+			MarkLogicSesameException mle = new MarkLogicSesameException(e.getMessage());
+			mle.initCause(e);
+			throw mle;
+		} finally {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				logger.debug("error closing count result", e);
+			}
+		}
+		return builder.getQueryResult();
+	}
+
+	/**
+	 * returns filter of graph variable ?g by graphs, empty if graphs is null
+	 *
+	 * @param graphs
+	 * @return String
+	 */
+	private static String graphFilter(Set<String> graphs) {
+		if (graphs == null) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(" FILTER (?g IN (");
+		boolean first = true;
+		for (String graph : graphs) {
+			if (!first) {
+				sb.append(", ");
+			}
+			first = false;
+			sb.append("IRI(\"").append(graph.replace("\\", "\\\\").replace("\"", "\\\"")).append("\")");
+		}
+		return sb.append("))").toString();
+	}
+
+	/**
+	 * returns result cache key of query, or null if it is not to be cached; queries in a
+	 * transaction are never cached, as they see changes others cannot
+	 *
+	 * @param kind
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @return String
+	 */
+	private String cacheKey(String kind, String queryString, SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI) {
+		if (!queryCache.isEnabled() || isActiveTransaction()) {
+			return null;
+		}
+		return QueryResultCache.key(kind, queryString, bindings, start, pageLength, includeInferred, baseURI, getRulesets(), getConstrainingQueryDefinition());
+	}
+
+	/**
+	 * returns graphs written by adding data to contexts, null (every graph) for formats with contexts
+	 *
+	 * @param dataFormat
+	 * @param contexts
+	 * @return Set
+	 */
+	private static Set<String> graphsOf(RDFFormat dataFormat, Resource... contexts) {
+		return dataFormat == null || dataFormat.supportsContexts() ? null : QueryResultCache.graphsOf(contexts);
+	}
+
+	/**
+	 * skolemizes blank nodes of statements
+	 *
+	 * @param statements
+	 * @return
+	 */
+	private List<Statement> skolemize(Collection<? extends Statement> statements) {
+		List<Statement> skolemized = new ArrayList<Statement>(statements.size());
+		for (Statement st : statements) {
+			skolemized.add(skolemize(st));
+		}
+		return skolemized;
+	}
+
+	/**
+	 * skolemizes blank nodes of a statement, as every add and remove sent to MarkLogic is
+	 *
+	 * @param st
+	 * @return
+	 */
+	Statement skolemize(Statement st) {
+		return getValueFactory().createStatement((Resource) skolemize(st.getSubject()), st.getPredicate(), skolemize(st.getObject()), (Resource) skolemize(st.getContext()));
+	}
+
 	/**
 	 *
 	 * @param s
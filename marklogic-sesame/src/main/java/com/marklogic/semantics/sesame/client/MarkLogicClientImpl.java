@@ -25,27 +25,35 @@ import com.marklogic.client.DatabaseClientFactory;
 import com.marklogic.client.FailedRequestException;
 import com.marklogic.client.Transaction;
 import com.marklogic.client.impl.SPARQLBindingsImpl;
-import com.marklogic.client.io.FileHandle;
 import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.OutputStreamSender;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.*;
 import com.marklogic.semantics.sesame.MarkLogicSesameException;
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.XMLSchema;
 import org.openrdf.query.Binding;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Locale;
 
 /**
@@ -59,6 +67,14 @@ class MarkLogicClientImpl {
 
     private static final String DEFAULT_GRAPH_URI = "http://marklogic.com/semantics#default-graph";
 
+    // xsd datatypes MarkLogic takes as typed bindings
+    private static final Map<String, RDFTypes> BINDING_TYPES = new HashMap<String, RDFTypes>();
+    static {
+        for (RDFTypes type : RDFTypes.values()) {
+            BINDING_TYPES.put(XMLSchema.NAMESPACE + type, type);
+        }
+    }
+
     private SPARQLRuleset[] ruleset;
     private QueryDefinition constrainingQueryDef;
     private GraphPermissions graphPerms;
@@ -148,12 +164,16 @@ class MarkLogicClientImpl {
         if (notNull(getConstrainingQueryDefinition())) {qdef.setConstrainingQueryDefinition(getConstrainingQueryDefinition());}
         qdef.setIncludeDefaultRulesets(includeInferred);
         if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
+        if(notNull(bindings)){ qdef.setBindings(getSPARQLBindings(bindings));}
         if(pageLength > 0){
-            sparqlManager.setPageLength(pageLength);
+            // page length is state of the manager, so paged queries, which may run concurrently
+            // on result threads, each get a manager of their own, leaving the shared one unpaged
+            SPARQLQueryManager pagedManager = getDatabaseClient().newSPARQLQueryManager();
+            pagedManager.setPageLength(pageLength);
+            pagedManager.executeSelect(qdef, handle, start, tx);
         }else{
-            //sparqlManager.clearPageLength();
+            sparqlManager.executeSelect(qdef, handle, start, tx);
         }
-        sparqlManager.executeSelect(qdef, handle, start, tx);
         return handle.get();
     }
 
@@ -189,6 +209,7 @@ class MarkLogicClientImpl {
         if (notNull(ruleset)) {qdef.setRulesets(ruleset);}
         if (notNull(getConstrainingQueryDefinition())){qdef.setConstrainingQueryDefinition(getConstrainingQueryDefinition());}
         if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
+        if(notNull(bindings)){ qdef.setBindings(getSPARQLBindings(bindings));}
         qdef.setIncludeDefaultRulesets(includeInferred);
         sparqlManager.executeDescribe(qdef, handle, tx);
         return handle.get();
@@ -211,9 +232,39 @@ class MarkLogicClientImpl {
         if (notNull(ruleset)) {qdef.setRulesets(ruleset);}
         if (notNull(getConstrainingQueryDefinition())){qdef.setConstrainingQueryDefinition(getConstrainingQueryDefinition());}
         if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
+        if(notNull(bindings)){ qdef.setBindings(getSPARQLBindings(bindings));}
         return sparqlManager.executeAsk(qdef,tx);
     }
 
+    /**
+     * executes SELECT query with no rulesets or constraining query, and no page length,
+     * used for counting triples
+     *
+     * @param queryString
+     * @param tx
+     * @return InputStream
+     */
+    public InputStream performUnconstrainedSelect(String queryString, Transaction tx) {
+        SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(queryString);
+        qdef.setIncludeDefaultRulesets(false);
+        InputStreamHandle handle = new InputStreamHandle();
+        sparqlManager.executeSelect(qdef, handle, tx);
+        return handle.get();
+    }
+
+    /**
+     * executes ASK query with no rulesets or constraining query
+     *
+     * @param queryString
+     * @param tx
+     * @return boolean
+     */
+    public boolean performUnconstrainedAsk(String queryString, Transaction tx) {
+        SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(queryString);
+        qdef.setIncludeDefaultRulesets(false);
+        return sparqlManager.executeAsk(qdef, tx);
+    }
+
     /**
      * executes UpdateQuery
      *
@@ -230,13 +281,16 @@ class MarkLogicClientImpl {
         // constraining query unused when adding triple
         //if (notNull(getConstrainingQueryDefinition())){qdef.setConstrainingQueryDefinition(getConstrainingQueryDefinition());}
         if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
+        if(notNull(bindings)){ qdef.setBindings(getSPARQLBindings(bindings));}
         qdef.setIncludeDefaultRulesets(includeInferred);
         sparqlManager.clearPageLength();
         sparqlManager.executeUpdate(qdef, tx);
     }
 
     /**
-     * executes merge of triples from File
+     * executes merge of triples from File, streamed from a FileChannel; a triples file
+     * added to several contexts is parsed once and sent as quads of every context in one
+     * request, rather than sent once per context, graph perms then being merged per context
      *
      * @param file
      * @param baseURI
@@ -248,25 +302,25 @@ class MarkLogicClientImpl {
     // performAdd
     // as we use mergeGraphs, baseURI is always file.toURI
     public void performAdd(File file, String baseURI, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException {
+        String mimetype = dataFormat.getDefaultMIMEType();
+        ContextQuadsSender quadsSender = null;
         try {
-            graphManager.setDefaultMimetype(dataFormat.getDefaultMIMEType());
             if (dataFormat.equals(RDFFormat.NQUADS) || dataFormat.equals(RDFFormat.TRIG)) {
-                graphManager.mergeGraphs(new FileHandle(file),tx);
+                graphManager.mergeGraphs(new OutputStreamQuadsHandle(new FileChannelSender(file), mimetype), tx);
+            } else if (notNull(contexts) && contexts.length > 1) {
+                quadsSender = new ContextQuadsSender(file, baseURI, dataFormat, contexts);
+                mergeToContexts(quadsSender, tx, contexts);
             } else {
-                if (notNull(contexts) && contexts.length>0) {
-                    for (int i = 0; i < contexts.length; i++) {
-                        if(notNull(contexts[i])){
-                            graphManager.mergeAs(contexts[i].toString(), new FileHandle(file), getGraphPerms(),tx);
-                        }else{
-                            graphManager.mergeAs(DEFAULT_GRAPH_URI, new FileHandle(file),getGraphPerms(), tx);
-                        }
-                    }
-                } else {
-                    graphManager.mergeAs(DEFAULT_GRAPH_URI, new FileHandle(file), getGraphPerms(),tx);
-                }
+                String graph = notNull(contexts) && contexts.length == 1 && notNull(contexts[0]) ? contexts[0].toString() : DEFAULT_GRAPH_URI;
+                graphManager.merge(graph, new OutputStreamQuadsHandle(new FileChannelSender(file), mimetype), getGraphPerms(), tx);
             }
         } catch (FailedRequestException e) {
             throw new RDFParseException("Request to MarkLogic server failed, check file and format.");
+        } catch (RuntimeException e) {
+            if (quadsSender != null && quadsSender.getParseException() != null) {
+                throw quadsSender.getParseException();
+            }
+            throw e;
         }
     }
 
@@ -281,19 +335,17 @@ class MarkLogicClientImpl {
      * @throws RDFParseException
      */
     public void performAdd(InputStream in, String baseURI, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException {
+        if (!dataFormat.equals(RDFFormat.NQUADS) && !dataFormat.equals(RDFFormat.TRIG) && notNull(contexts) && contexts.length > 1) {
+            performAddToContexts(in, baseURI, dataFormat, tx, contexts);
+            return;
+        }
         try {
             graphManager.setDefaultMimetype(dataFormat.getDefaultMIMEType());
             if (dataFormat.equals(RDFFormat.NQUADS) || dataFormat.equals(RDFFormat.TRIG)) {
                 graphManager.mergeGraphs(new InputStreamHandle(in),tx);
             } else {
-                if (notNull(contexts) && contexts.length > 0) {
-                    for (int i = 0; i < contexts.length; i++) {
-                        if (notNull(contexts[i])) {
-                            graphManager.mergeAs(contexts[i].toString(), new InputStreamHandle(in), getGraphPerms(), tx);
-                        } else {
-                            graphManager.mergeAs(DEFAULT_GRAPH_URI, new InputStreamHandle(in),getGraphPerms(), tx);
-                        }
-                    }
+                if (notNull(contexts) && contexts.length > 0 && notNull(contexts[0])) {
+                    graphManager.mergeAs(contexts[0].toString(), new InputStreamHandle(in), getGraphPerms(), tx);
                 } else {
                     graphManager.mergeAs(DEFAULT_GRAPH_URI, new InputStreamHandle(in),getGraphPerms(), tx);
                 }
@@ -303,6 +355,144 @@ class MarkLogicClientImpl {
         }
     }
 
+    /**
+     * executes merge of triples from InputStream into several contexts; a stream can only
+     * be read once, so it is spooled, in memory or spilling to a temporary file, then parsed
+     * once and sent as quads of every context in one request
+     *
+     * @param in
+     * @param baseURI
+     * @param dataFormat
+     * @param tx
+     * @param contexts
+     * @throws RDFParseException
+     */
+    private void performAddToContexts(InputStream in, String baseURI, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException {
+        try (SpoolBuffer spool = new SpoolBuffer(SpoolBuffer.DEFAULT_THRESHOLD)) {
+            spool.readFrom(in);
+            performAddToContexts(spool, baseURI, dataFormat, tx, contexts);
+        } catch (IOException e) {
+            throw new RDFParseException(e);
+        }
+    }
+
+    /**
+     * executes merge of spooled triples into several contexts in one request
+     *
+     * @param spool
+     * @param baseURI
+     * @param dataFormat
+     * @param tx
+     * @param contexts
+     * @throws RDFParseException
+     */
+    private void performAddToContexts(SpoolBuffer spool, String baseURI, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException {
+        ContextQuadsSender quadsSender = new ContextQuadsSender(spool, baseURI, dataFormat, contexts);
+        try {
+            mergeToContexts(quadsSender, tx, contexts);
+        } catch (FailedRequestException e) {
+            throw new RDFParseException("Request to MarkLogic server failed, check input is valid.");
+        } catch (RuntimeException e) {
+            if (quadsSender.getParseException() != null) {
+                throw quadsSender.getParseException();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * executes merge of triples written by an OutputStreamSender, eg. encoded from a Reader;
+     * for several contexts the output is spooled first, as it can only be written once, then
+     * parsed like a stream, against an empty base URI if baseURI is null
+     *
+     * @param sender
+     * @param baseURI
+     * @param dataFormat
+     * @param tx
+     * @param contexts
+     * @throws RDFParseException
+     */
+    public void performAdd(OutputStreamSender sender, String baseURI, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException {
+        boolean quads = dataFormat.equals(RDFFormat.NQUADS) || dataFormat.equals(RDFFormat.TRIG);
+        if (!quads && notNull(contexts) && contexts.length > 1) {
+            try (SpoolBuffer spool = new SpoolBuffer(SpoolBuffer.DEFAULT_THRESHOLD)) {
+                spool.writeFrom(sender);
+                performAddToContexts(spool, baseURI, dataFormat, tx, contexts);
+            } catch (IOException e) {
+                throw new RDFParseException(e);
+            }
+            return;
+        }
+        try {
+            OutputStreamQuadsHandle handle = new OutputStreamQuadsHandle(sender, dataFormat.getDefaultMIMEType());
+            if (quads) {
+                graphManager.mergeGraphs(handle, tx);
+            } else {
+                String graph = notNull(contexts) && contexts.length == 1 && notNull(contexts[0]) ? contexts[0].toString() : DEFAULT_GRAPH_URI;
+                graphManager.merge(graph, handle, getGraphPerms(), tx);
+            }
+        } catch (FailedRequestException e) {
+            throw new RDFParseException("Request to MarkLogic server failed, check input is valid.");
+        }
+    }
+
+    /**
+     * merges quads of every context in one request, then merges graph perms per context
+     *
+     * @param quadsSender
+     * @param tx
+     * @param contexts
+     */
+    private void mergeToContexts(ContextQuadsSender quadsSender, Transaction tx, Resource... contexts) {
+        graphManager.mergeGraphs(new OutputStreamQuadsHandle(quadsSender, RDFFormat.NQUADS.getDefaultMIMEType()), tx);
+        if (notNull(getGraphPerms())) {
+            for (Resource context : contexts) {
+                graphManager.mergePermissions(notNull(context) ? context.toString() : DEFAULT_GRAPH_URI, getGraphPerms(), tx);
+            }
+        }
+    }
+
+    /**
+     * executes merge of quads written by an OutputStreamSender, streaming
+     * them into the request body rather than buffering
+     *
+     * @param sender
+     * @param dataFormat
+     * @param tx
+     * @throws RDFParseException
+     */
+    public void performAdd(OutputStreamSender sender, RDFFormat dataFormat, Transaction tx) throws RDFParseException {
+        try {
+            graphManager.mergeGraphs(new OutputStreamQuadsHandle(sender, dataFormat.getDefaultMIMEType()), tx);
+        } catch (FailedRequestException e) {
+            throw new RDFParseException("Request to MarkLogic server failed, check input is valid.");
+        }
+    }
+
+    /**
+     * executes merge of a part of a bulk load, N-Quads are merged into their own graphs,
+     * N-Triples into each context or the default graph; the mimetype is set on the handle
+     * rather than the shared graphManager so parts can be sent concurrently, and request
+     * failures are left for the caller to retry
+     *
+     * @param sender
+     * @param dataFormat
+     * @param contexts
+     */
+    public void performBulkAdd(OutputStreamSender sender, RDFFormat dataFormat, Resource... contexts) {
+        String mimetype = dataFormat.getDefaultMIMEType();
+        if (dataFormat.equals(RDFFormat.NQUADS)) {
+            graphManager.mergeGraphs(new OutputStreamQuadsHandle(sender, mimetype));
+        } else if (notNull(contexts) && contexts.length>0) {
+            for (int i = 0; i < contexts.length; i++) {
+                String graph = notNull(contexts[i]) ? contexts[i].toString() : DEFAULT_GRAPH_URI;
+                graphManager.merge(graph, new OutputStreamQuadsHandle(sender, mimetype), getGraphPerms());
+            }
+        } else {
+            graphManager.merge(DEFAULT_GRAPH_URI, new OutputStreamQuadsHandle(sender, mimetype), getGraphPerms());
+        }
+    }
+
     /**
      * executes INSERT of single triple
      *
@@ -343,6 +533,62 @@ class MarkLogicClientImpl {
         sparqlManager.executeUpdate(qdef, tx);
     }
 
+    /**
+     * executes INSERT DATA of a batch of statements, grouped by context; statements
+     * without context are added to the default graph
+     *
+     * @param baseURI
+     * @param statements
+     * @param tx
+     * @throws MarkLogicSesameException
+     */
+    public void performAdd(String baseURI, Collection<? extends Statement> statements, Transaction tx) throws MarkLogicSesameException {
+        StringBuilder sb = new StringBuilder();
+        appendData(sb, "INSERT DATA", statements);
+        SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(sb.toString());
+        if (notNull(ruleset) ) {qdef.setRulesets(ruleset);}
+        if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
+        if(notNull(baseURI) && baseURI != ""){ qdef.setBaseUri(baseURI);}
+        sparqlManager.executeUpdate(qdef, tx);
+    }
+
+    /**
+     * executes a single update removing then adding statements; removes and adds
+     * without context are in the default graph, anyGraphRemoves are removed from
+     * every graph they are in
+     *
+     * @param removes
+     * @param anyGraphRemoves
+     * @param adds
+     * @param tx
+     * @throws MarkLogicSesameException
+     */
+    public void performChanges(Collection<? extends Statement> removes, Collection<? extends Statement> anyGraphRemoves, Collection<? extends Statement> adds, Transaction tx) throws MarkLogicSesameException {
+        StringBuilder sb = new StringBuilder();
+        if (!removes.isEmpty()) {
+            appendData(sb, "DELETE DATA", removes);
+        }
+        if (!anyGraphRemoves.isEmpty()) {
+            if (sb.length() > 0) sb.append(" ;\n");
+            sb.append("DELETE { GRAPH ?g { ?s ?p ?o } } WHERE { GRAPH ?g { ?s ?p ?o } VALUES (?s ?p ?o) {\n");
+            for (Statement st : anyGraphRemoves) {
+                appendTriple(sb.append("("), st).append(")\n");
+            }
+            sb.append("} }");
+        }
+        if (!adds.isEmpty()) {
+            if (sb.length() > 0) sb.append(" ;\n");
+            appendData(sb, "INSERT DATA", adds);
+        }
+        if (sb.length() == 0) {
+            return;
+        }
+        SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(sb.toString());
+        if (notNull(ruleset) ) {qdef.setRulesets(ruleset);}
+        if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
+        sparqlManager.executeUpdate(qdef, tx);
+    }
+
     /**
      * executes DELETE of single triple
      *
@@ -379,6 +625,49 @@ class MarkLogicClientImpl {
         sparqlManager.executeUpdate(qdef, tx);
     }
 
+    /**
+     * executes removal of a batch of statements from contexts, matching
+     * performRemove of a single triple; with one context this is a DELETE DATA,
+     * with several a statement is only removed if it is in all of them, and with
+     * none it is removed from every graph it is in
+     *
+     * @param baseURI
+     * @param statements
+     * @param tx
+     * @param contexts
+     * @throws MarkLogicSesameException
+     */
+    public void performRemove(String baseURI, Collection<? extends Statement> statements, Transaction tx, Resource... contexts) throws MarkLogicSesameException {
+        if (statements.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        if (notNull(contexts) && contexts.length == 1) {
+            sb.append("DELETE DATA { GRAPH <").append(graphURI(contexts[0])).append("> {\n");
+            for (Statement st : statements) {
+                appendTriple(sb, st).append(" .\n");
+            }
+            sb.append("} }");
+        } else {
+            StringBuilder patterns = new StringBuilder();
+            if (notNull(contexts) && contexts.length > 1) {
+                for (Resource context : contexts) {
+                    patterns.append("GRAPH <").append(graphURI(context)).append("> { ?s ?p ?o } ");
+                }
+            } else {
+                patterns.append("GRAPH ?g { ?s ?p ?o } ");
+            }
+            sb.append("DELETE { ").append(patterns).append("} WHERE { ").append(patterns).append("VALUES (?s ?p ?o) {\n");
+            for (Statement st : statements) {
+                appendTriple(sb.append("("), st).append(")\n");
+            }
+            sb.append("} }");
+        }
+        SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(sb.toString());
+        if(notNull(baseURI) && baseURI != ""){ qdef.setBaseUri(baseURI);}
+        sparqlManager.executeUpdate(qdef, tx);
+    }
+
     /**
      * clears triples from named graph
      *
@@ -475,7 +764,8 @@ class MarkLogicClientImpl {
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * converts Sesame BindingSet to java api client SPARQLBindings
+     * converts Sesame BindingSet to java api client SPARQLBindings, leaving out values
+     * MarkLogic cannot bind, which the query string has inlined instead
      *
      * @param bindings
      * @return
@@ -483,13 +773,96 @@ class MarkLogicClientImpl {
     protected SPARQLBindings getSPARQLBindings(SPARQLQueryBindingSet bindings) {
         SPARQLBindings sps = new SPARQLBindingsImpl();
         for (Binding binding : bindings) {
-            sps.bind(binding.getName(), binding.getValue().stringValue());
+            Value value = binding.getValue();
+            if (value instanceof URI) {
+                sps.bind(binding.getName(), value.stringValue());
+            } else if (isBindable(value)) {
+                Literal lit = (Literal) value;
+                if (lit.getLanguage() != null) {
+                    sps.bind(binding.getName(), lit.getLabel(), Locale.forLanguageTag(lit.getLanguage()));
+                } else if (lit.getDatatype() != null) {
+                    sps.bind(binding.getName(), lit.getLabel(), BINDING_TYPES.get(lit.getDatatype().stringValue()));
+                } else {
+                    sps.bind(binding.getName(), lit.getLabel(), RDFTypes.STRING);
+                }
+            }
         }
         return sps;
     }
 
+    /**
+     * returns true if value can be sent as a typed server side binding; blank nodes,
+     * literals of datatypes other than those of RDFTypes and language tags that do not
+     * survive as a Locale cannot be
+     *
+     * @param value
+     * @return boolean
+     */
+    static boolean isBindable(Value value) {
+        if (value instanceof URI) {
+            return true;
+        }
+        if (!(value instanceof Literal)) {
+            return false;
+        }
+        Literal lit = (Literal) value;
+        if (lit.getLanguage() != null) {
+            return Locale.forLanguageTag(lit.getLanguage()).toLanguageTag().equalsIgnoreCase(lit.getLanguage());
+        }
+        return lit.getDatatype() == null || BINDING_TYPES.containsKey(lit.getDatatype().stringValue());
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * appends INSERT DATA or DELETE DATA of statements grouped by context,
+     * null being the default graph
+     *
+     * @param sb
+     * @param operation
+     * @param statements
+     */
+    private static void appendData(StringBuilder sb, String operation, Collection<? extends Statement> statements) {
+        Map<Resource, StringBuilder> graphs = new LinkedHashMap<Resource, StringBuilder>();
+        for (Statement st : statements) {
+            StringBuilder triples = graphs.get(st.getContext());
+            if (triples == null) {
+                triples = new StringBuilder();
+                graphs.put(st.getContext(), triples);
+            }
+            appendTriple(triples, st).append(" .\n");
+        }
+        sb.append(operation).append(" {\n");
+        for (Map.Entry<Resource, StringBuilder> graph : graphs.entrySet()) {
+            sb.append("GRAPH <").append(graphURI(graph.getKey())).append("> {\n").append(graph.getValue()).append("}\n");
+        }
+        sb.append("}");
+    }
+
+    /**
+     * returns graph uri of context, null being the default graph
+     *
+     * @param context
+     * @return String
+     */
+    private static String graphURI(Resource context) {
+        return notNull(context) ? context.stringValue() : DEFAULT_GRAPH_URI;
+    }
+
+    /**
+     * appends subject, predicate and object of a statement in N-Triples syntax,
+     * which SPARQL accepts for terms
+     *
+     * @param sb
+     * @param st
+     * @return StringBuilder
+     */
+    private static StringBuilder appendTriple(StringBuilder sb, Statement st) {
+        return sb.append(NTriplesUtil.toNTriplesString(st.getSubject())).append(' ')
+                .append(NTriplesUtil.toNTriplesString(st.getPredicate())).append(' ')
+                .append(NTriplesUtil.toNTriplesString(st.getObject()));
+    }
+
     /**
      * bind object
      *
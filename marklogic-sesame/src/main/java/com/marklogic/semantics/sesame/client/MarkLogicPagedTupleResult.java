@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+
+import com.marklogic.client.Transaction;
+import com.marklogic.semantics.sesame.MarkLogicSesameException;
+import info.aduna.iteration.Iterations;
+import info.aduna.iteration.LookAheadIteration;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * tuple query result read a page at a time, see MarkLogicClient.setResultPageLength()
+ *
+ * the first page is read by the constructor, so evaluate() reports query errors;
+ * while a full page is consumed the next is read on a result thread, or, if the
+ * result executor refuses it, on the calling thread once needed; a page shorter
+ * than pageLength is the last
+ *
+ * pages are read with the rulesets, constraining query and graph perms the client
+ * has when each page is read
+ *
+ * @author James Fuller
+ */
+class MarkLogicPagedTupleResult extends LookAheadIteration<BindingSet, QueryEvaluationException> implements TupleQueryResult {
+
+	private final MarkLogicClient client;
+	private final String queryString;
+	private final SPARQLQueryBindingSet bindings;
+	private final long pageLength;
+	private final boolean includeInferred;
+	private final String baseURI;
+	private final Transaction tx;
+
+	private final List<String> bindingNames;
+
+	private Iterator<BindingSet> page;
+	private long nextStart;
+	// next page, null once the last page has been read
+	private FutureTask<List<BindingSet>> next;
+	private boolean nextSubmitted;
+
+	/**
+	 * constructor, reading the first page
+	 *
+	 * @param client
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param tx
+	 * @throws IOException
+	 * @throws MarkLogicSesameException
+	 */
+	MarkLogicPagedTupleResult(MarkLogicClient client, String queryString, SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, Transaction tx) throws IOException, MarkLogicSesameException {
+		this.client = client;
+		this.queryString = queryString;
+		// copied, as the query's bindings may change while pages are still to be read
+		this.bindings = bindings == null ? null : new SPARQLQueryBindingSet(bindings);
+		this.pageLength = pageLength;
+		this.includeInferred = includeInferred;
+		this.baseURI = baseURI;
+		this.tx = tx;
+		this.nextStart = start;
+		TupleQueryResult first = client.readPage(queryString, this.bindings, start, pageLength, includeInferred, baseURI, tx);
+		try {
+			this.bindingNames = first.getBindingNames();
+			setPage(Iterations.asList(first));
+		} catch (QueryEvaluationException e) {
+			MarkLogicSesameException mle = new MarkLogicSesameException(e.getMessage());
+			mle.initCause(e);
+			throw mle;
+		}
+	}
+
+	/**
+	 * returns binding names of result
+	 *
+	 * @return List
+	 */
+	@Override
+	public List<String> getBindingNames() throws QueryEvaluationException {
+		return bindingNames;
+	}
+
+	/**
+	 * returns next binding set, waiting for the next page when the current one is consumed
+	 *
+	 * @return BindingSet
+	 * @throws QueryEvaluationException
+	 */
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		while (!page.hasNext()) {
+			if (next == null) {
+				return null;
+			}
+			setPage(awaitNext());
+		}
+		return page.next();
+	}
+
+	/**
+	 * stops reading further pages
+	 *
+	 * @throws QueryEvaluationException
+	 */
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		try {
+			if (next != null) {
+				// a page being read is left to complete, its result being dropped
+				next.cancel(false);
+				next = null;
+			}
+		} finally {
+			super.handleClose();
+		}
+	}
+
+	///////////////////////////////////////////////////////////////////////////////////////////////
+	// private ////////////////////////////////////////////////////////////////////////////////////
+	///////////////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * makes rows the current page, starting to read the next if rows is a full page
+	 *
+	 * @param rows
+	 */
+	private void setPage(List<BindingSet> rows) {
+		this.page = rows.iterator();
+		if (rows.size() < pageLength) {
+			this.next = null;
+			return;
+		}
+		final long start = nextStart + pageLength;
+		nextStart = start;
+		next = new FutureTask<List<BindingSet>>(new Callable<List<BindingSet>>() {
+			@Override
+			public List<BindingSet> call() throws Exception {
+				return Iterations.asList(client.readPage(queryString, bindings, start, pageLength, includeInferred, baseURI, tx));
+			}
+		});
+		try {
+			client.execute(next);
+			nextSubmitted = true;
+		} catch (RejectedExecutionException e) {
+			nextSubmitted = false;
+		}
+	}
+
+	/**
+	 * returns next page, reading it on the calling thread if the result executor refused it
+	 *
+	 * @return List
+	 * @throws QueryEvaluationException
+	 */
+	private List<BindingSet> awaitNext() throws QueryEvaluationException {
+		FutureTask<List<BindingSet>> task = next;
+		if (!nextSubmitted) {
+			task.run();
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new QueryEvaluationException("Interrupted waiting for next page of results.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof QueryEvaluationException) {
+				throw (QueryEvaluationException) cause;
+			}
+			throw new QueryEvaluationException(cause.getMessage(), cause);
+		}
+	}
+}
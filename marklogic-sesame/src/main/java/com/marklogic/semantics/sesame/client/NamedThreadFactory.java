@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadFactory naming threads prefix-1, prefix-2 ... so they can be told
+ * apart in thread dumps
+ *
+ * @author James Fuller
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(NamedThreadFactory.class);
+
+    private final String prefix;
+    private final boolean daemon;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * constructor
+     *
+     * @param prefix
+     * @param daemon
+     */
+    public NamedThreadFactory(String prefix, boolean daemon) {
+        this.prefix = prefix;
+        this.daemon = daemon;
+    }
+
+    /**
+     * creates a named thread
+     *
+     * @param r
+     * @return Thread
+     */
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(daemon);
+        return t;
+    }
+
+    /**
+     * returns a factory of named virtual threads, or null if the running JVM has none;
+     * looked up reflectively as this library is built for older JVMs
+     *
+     * @param prefix
+     * @return ThreadFactory
+     */
+    static ThreadFactory newVirtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("virtual threads not available", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.io.OutputStreamHandle;
+import com.marklogic.client.io.OutputStreamSender;
+import com.marklogic.client.io.marker.QuadsWriteHandle;
+import com.marklogic.client.io.marker.TriplesWriteHandle;
+
+/**
+ * OutputStreamHandle usable for graph merges, streaming quads or
+ * triples directly into the request body; resendable if its sender is
+ *
+ * @author James Fuller
+ */
+class OutputStreamQuadsHandle extends OutputStreamHandle implements QuadsWriteHandle, TriplesWriteHandle {
+
+    /**
+     * constructor
+     *
+     * @param sender
+     * @param mimetype
+     */
+    public OutputStreamQuadsHandle(OutputStreamSender sender, String mimetype) {
+        super(sender);
+        setMimetype(mimetype);
+        setResendable(sender instanceof ResendableSender);
+    }
+}
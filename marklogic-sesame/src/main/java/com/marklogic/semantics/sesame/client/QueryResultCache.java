@@ -0,0 +1,381 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.query.QueryDefinition;
+import com.marklogic.client.query.StringQueryDefinition;
+import com.marklogic.client.query.StructuredQueryDefinition;
+import com.marklogic.client.semantics.SPARQLRuleset;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * cache of query results, shared by a MarkLogicClient and the clients copied from it
+ *
+ * entries are evicted least recently used once there are more than maxSize, and
+ * expire after maxAgeMillis; writes remove the entries of queries reading the
+ * graphs written, queries with no FROM or FROM NAMED reading every graph
+ *
+ * each write also moves the cache on a generation, so a query evaluated while a
+ * write was under way never stores its (possibly stale) result
+ *
+ * @author James Fuller
+ */
+class QueryResultCache {
+
+    public static final int DEFAULT_MAX_SIZE = 0;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 60000;
+
+    static final String DEFAULT_GRAPH_URI = "http://marklogic.com/semantics#default-graph";
+
+    // guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private long hits = 0;
+    private long misses = 0;
+
+    private volatile long generation = 0;
+
+    /**
+     * returns maximum number of results cached, 0 disabling the cache
+     *
+     * @return int
+     */
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * sets maximum number of results cached, 0 disabling the cache
+     *
+     * @param maxSize
+     */
+    synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative.");
+        }
+        this.maxSize = maxSize;
+        trim();
+    }
+
+    /**
+     * returns how long results are cached
+     *
+     * @return long
+     */
+    synchronized long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    /**
+     * sets how long results are cached
+     *
+     * @param maxAgeMillis
+     */
+    synchronized void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * returns number of lookups answered from the cache
+     *
+     * @return long
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * returns number of lookups not answered from the cache
+     *
+     * @return long
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * returns true if results are cached
+     *
+     * @return boolean
+     */
+    synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * returns current generation, to be passed to put
+     *
+     * @return long
+     */
+    long generation() {
+        return generation;
+    }
+
+    /**
+     * returns cached result, or null
+     *
+     * @param key
+     * @return Object
+     */
+    synchronized Object get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.created > maxAgeMillis) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * caches result of query, unless the cache has moved on from startGeneration
+     *
+     * @param key
+     * @param queryString
+     * @param baseURI
+     * @param result
+     * @param startGeneration  generation when the query was sent
+     */
+    void put(String key, String queryString, String baseURI, Object result, long startGeneration) {
+        Set<String> graphs = graphsRead(queryString, baseURI);
+        synchronized (this) {
+            if (maxSize == 0 || generation != startGeneration) {
+                return;
+            }
+            entries.put(key, new Entry(result, graphs, System.currentTimeMillis()));
+            trim();
+        }
+    }
+
+    /**
+     * removes results of queries which may read graphs
+     *
+     * @param graphs  graph uris, null for every graph
+     */
+    synchronized void invalidate(Set<String> graphs) {
+        generation++;
+        if (graphs == null) {
+            entries.clear();
+            return;
+        }
+        Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Set<String> read = iter.next().graphs;
+            if (read == null || !Collections.disjoint(read, graphs)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * removes all cached results
+     */
+    void clear() {
+        invalidate(null);
+    }
+
+    /**
+     * returns key of a query, or null if it cannot be cached
+     *
+     * @param kind
+     * @param queryString
+     * @param bindings
+     * @param start
+     * @param pageLength
+     * @param includeInferred
+     * @param baseURI
+     * @param rulesets
+     * @param constrainingQuery
+     * @return String
+     */
+    static String key(String kind, String queryString, BindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, SPARQLRuleset[] rulesets, QueryDefinition constrainingQuery) {
+        StringBuilder sb = new StringBuilder(queryString.length() + 128);
+        sb.append(kind).append('\n').append(queryString).append('\n');
+        if (bindings != null) {
+            Map<String, String> sorted = new TreeMap<String, String>();
+            for (Binding binding : bindings) {
+                sorted.put(binding.getName(), String.valueOf(binding.getValue()));
+            }
+            sb.append(sorted).append('\n');
+        }
+        sb.append(start).append(' ').append(pageLength).append(' ').append(includeInferred).append(' ').append(baseURI).append('\n');
+        if (rulesets != null) {
+            for (SPARQLRuleset ruleset : rulesets) {
+                sb.append(ruleset == null ? null : ruleset.getName()).append(' ');
+            }
+            sb.append('\n');
+        }
+        if (constrainingQuery != null) {
+            if (constrainingQuery instanceof StringQueryDefinition) {
+                sb.append(((StringQueryDefinition) constrainingQuery).getCriteria());
+            } else if (constrainingQuery instanceof StructuredQueryDefinition) {
+                sb.append(((StructuredQueryDefinition) constrainingQuery).serialize());
+            } else {
+                // raw query definitions hold a handle, which has no stable text to key on
+                return null;
+            }
+            sb.append(' ').append(constrainingQuery.getOptionsName())
+                    .append(' ').append(Arrays.toString(constrainingQuery.getCollections()))
+                    .append(' ').append(constrainingQuery.getDirectory())
+                    .append(' ').append(constrainingQuery.getResponseTransform());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * returns uris of graphs written to contexts, no contexts or the null context
+     * being the default graph
+     *
+     * @param contexts
+     * @return Set
+     */
+    static Set<String> graphsOf(Resource... contexts) {
+        Set<String> graphs = new HashSet<String>();
+        if (contexts == null || contexts.length == 0) {
+            graphs.add(DEFAULT_GRAPH_URI);
+            return graphs;
+        }
+        for (Resource context : contexts) {
+            graphs.add(context == null ? DEFAULT_GRAPH_URI : context.stringValue());
+        }
+        return graphs;
+    }
+
+    /**
+     * returns uris of graphs written by statements, each to its own context
+     *
+     * @param statements
+     * @return Set
+     */
+    static Set<String> graphsOf(Collection<? extends Statement> statements) {
+        Set<String> graphs = new HashSet<String>();
+        for (Statement st : statements) {
+            graphs.add(st.getContext() == null ? DEFAULT_GRAPH_URI : st.getContext().stringValue());
+        }
+        return graphs;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * returns graphs named by FROM and FROM NAMED of query, or null if it reads every graph
+     *
+     * @param queryString
+     * @param baseURI
+     * @return Set
+     */
+    private static Set<String> graphsRead(String queryString, String baseURI) {
+        Dataset dataset;
+        try {
+            dataset = new SPARQLParser().parseQuery(queryString, baseURI).getDataset();
+        } catch (MalformedQueryException | RuntimeException e) {
+            // MarkLogic accepts extensions the Sesame parser does not
+            return null;
+        }
+        if (dataset == null) {
+            return null;
+        }
+        Set<String> graphs = new HashSet<String>();
+        for (URI graph : dataset.getDefaultGraphs()) {
+            graphs.add(graph.stringValue());
+        }
+        for (URI graph : dataset.getNamedGraphs()) {
+            graphs.add(graph.stringValue());
+        }
+        return graphs;
+    }
+
+    /**
+     * evicts least recently used entries over maxSize, callers must hold this
+     */
+    private void trim() {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (entries.size() > maxSize && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * cached result of a tuple query
+     */
+    static class TupleResult {
+        final List<String> bindingNames;
+        final List<BindingSet> bindingSets;
+
+        TupleResult(List<String> bindingNames, List<BindingSet> bindingSets) {
+            this.bindingNames = bindingNames;
+            this.bindingSets = bindingSets;
+        }
+    }
+
+    /**
+     * cached result of a graph query
+     */
+    static class GraphResult {
+        final Map<String, String> namespaces;
+        final List<Statement> statements;
+
+        GraphResult(Map<String, String> namespaces, List<Statement> statements) {
+            this.namespaces = namespaces;
+            this.statements = statements;
+        }
+    }
+
+    /**
+     * cached result, the graphs its query reads and when it was cached
+     */
+    private static class Entry {
+        private final Object result;
+        private final Set<String> graphs;
+        private final long created;
+
+        private Entry(Object result, Set<String> graphs, long created) {
+            this.result = result;
+            this.graphs = graphs;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.io.OutputStreamSender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * OutputStreamSender encoding the characters of a Reader straight into the
+ * request body, through one CharsetEncoder and a pair of large buffers
+ *
+ * @author James Fuller
+ */
+class ReaderSender implements OutputStreamSender {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final CharsetEncoder encoder;
+
+    /**
+     * constructor
+     *
+     * @param reader
+     * @param charset
+     */
+    public ReaderSender(Reader reader, Charset charset) {
+        this.reader = reader;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * encodes reader to request body
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void write(OutputStream out) throws IOException {
+        CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (BUFFER_SIZE * encoder.maxBytesPerChar()));
+        encoder.reset();
+        boolean eof = false;
+        while (!eof) {
+            eof = reader.read(chars) < 0;
+            chars.flip();
+            encode(chars, bytes, out, eof);
+            chars.compact();
+        }
+        CoderResult result;
+        while ((result = encoder.flush(bytes)).isOverflow()) {
+            drain(bytes, out);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        drain(bytes, out);
+    }
+
+    /**
+     * encodes as many chars as can be, leaving a trailing half of a surrogate pair for the next read
+     *
+     * @param chars
+     * @param bytes
+     * @param out
+     * @param eof
+     * @throws IOException
+     */
+    private void encode(CharBuffer chars, ByteBuffer bytes, OutputStream out, boolean eof) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, eof);
+            if (result.isError()) {
+                result.throwException();
+            }
+            drain(bytes, out);
+            if (result.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * writes encoded bytes, emptying buffer
+     *
+     * @param bytes
+     * @param out
+     * @throws IOException
+     */
+    private static void drain(ByteBuffer bytes, OutputStream out) throws IOException {
+        bytes.flip();
+        out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        bytes.clear();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.io.OutputStreamSender;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * copy of a stream that can be read more than once, held in memory up to
+ * a threshold and spilled to a temporary file beyond it
+ *
+ * @author James Fuller
+ */
+class SpoolBuffer implements Closeable {
+
+    public static final int DEFAULT_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int threshold;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private File file;
+    private OutputStream spill;
+
+    /**
+     * constructor
+     *
+     * @param threshold  bytes held in memory before spilling to a temporary file
+     */
+    public SpoolBuffer(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * reads stream to its end, without closing it
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void readFrom(InputStream in) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                write(buf, 0, n);
+            }
+        } finally {
+            finishWriting();
+        }
+    }
+
+    /**
+     * writes everything sender writes
+     *
+     * @param sender
+     * @throws IOException
+     */
+    public void writeFrom(OutputStreamSender sender) throws IOException {
+        try {
+            sender.write(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    SpoolBuffer.this.write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    SpoolBuffer.this.write(b, off, len);
+                }
+            });
+        } finally {
+            finishWriting();
+        }
+    }
+
+    /**
+     * returns a new stream over the copy
+     *
+     * @return InputStream
+     * @throws IOException
+     */
+    public InputStream openInputStream() throws IOException {
+        if (file != null) {
+            return Channels.newInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        }
+        return new ByteArrayInputStream(memory.toByteArray());
+    }
+
+    /**
+     * returns true if copy was spilled to a temporary file
+     *
+     * @return boolean
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * appends bytes, spilling to a temporary file once past threshold
+     *
+     * @param b
+     * @param off
+     * @param len
+     * @throws IOException
+     */
+    private void write(byte[] b, int off, int len) throws IOException {
+        if (spill == null && memory.size() + len > threshold) {
+            file = File.createTempFile("marklogic-sesame", ".spool");
+            spill = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+            memory.writeTo(spill);
+            memory = null;
+        }
+        if (spill != null) {
+            spill.write(b, off, len);
+        } else {
+            memory.write(b, off, len);
+        }
+    }
+
+    /**
+     * closes temporary file once copy is complete
+     *
+     * @throws IOException
+     */
+    private void finishWriting() throws IOException {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    /**
+     * deletes temporary file, if any
+     */
+    @Override
+    public void close() {
+        try {
+            finishWriting();
+        } catch (IOException e) {
+            // copy is discarded anyway
+        }
+        if (file != null && file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+        file = null;
+        memory = null;
+    }
+}
@@ -14,49 +14,109 @@
  * limitations under the License.
  */
 /**
- * A timer that flushes a cache of triple add statements
- * periodically. The cache is represented as a Model.
+ * A timer that flushes a cache of triple add and remove statements
+ * periodically. The cache is represented as a set of Models and is
+ * bounded, flushing as soon as it is full.
  */
 package com.marklogic.semantics.sesame.client;
 
+import com.marklogic.client.io.OutputStreamSender;
 import com.marklogic.semantics.sesame.MarkLogicSesameException;
+import org.openrdf.model.Literal;
 import org.openrdf.model.Model;
 import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.impl.LinkedHashModel;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFWriter;
 import org.openrdf.rio.Rio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.util.Date;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Timer implements write cache for efficient adding of triples
  *
+ * it is scheduled on a ScheduledExecutorService, normally the one shared by
+ * all connections of a MarkLogicRepository, rather than a Timer of its own
+ *
+ * the cache is bounded by triple count and (approximate) byte size; when
+ * either limit is reached the adding thread starts a flush itself, so
+ * the timer only acts as a backstop flushing stale triples
+ *
+ * the cache is safe for use by many threads; triples are added to one of
+ * several stripes (chosen by calling thread) each guarded by its own lock,
+ * and a flush only holds a stripe lock long enough to swap in an empty Model
+ *
+ * flushes are pipelined; drained Models are serialized and sent by a background
+ * thread while the stripes fill again, with up to maxInFlight flushes outstanding
+ * before adding threads have to wait
+ *
+ * removals of fully bound triples are cached too, cancelling pending adds of the
+ * same quad; a flush carrying removals is sent as one SPARQL update, removals
+ * first, and never overlaps another flush so changes are applied in order
+ *
+ * adds are sent through MarkLogicClient.sendAdd, so are gzip compressed when
+ * the client has compressUploads set
+ *
  * @author James Fuller
  */
 public class WriteCacheTimerTask extends TimerTask {
 
     private static Logger log = LoggerFactory.getLogger(WriteCacheTimerTask.class);
 
-    private Model cache;
+    private final Stripe[] stripes;
     private MarkLogicClient client;
 
     public static long DEFAULT_CACHE_MILLIS = 750;
     public static long DEFAULT_INITIAL_DELAY = 10;
-    private static long DEFAULT_CACHE_SIZE = 750;
+    public static long DEFAULT_CACHE_SIZE = 750;
+    public static long DEFAULT_CACHE_BYTE_SIZE = 4 * 1024 * 1024;
+    public static int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    // approximate N-Quads punctuation and whitespace per statement
+    private static final int STATEMENT_OVERHEAD = 8;
 
-    private long cacheSize = DEFAULT_CACHE_SIZE;
-    private long cacheMillis = DEFAULT_CACHE_MILLIS;
-    private Date lastCacheAccess = new Date();
+    private volatile long cacheSize = DEFAULT_CACHE_SIZE;
+    private volatile long cacheByteSize = DEFAULT_CACHE_BYTE_SIZE;
+    private volatile long cacheMillis = DEFAULT_CACHE_MILLIS;
+    private volatile int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private volatile long lastCacheAccess = System.currentTimeMillis();
+
+    private final AtomicLong cacheCount = new AtomicLong();
+    private final AtomicLong cacheBytes = new AtomicLong();
+
+    // serializes flushes, and makes producers wait while a full cache is flushed
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // pending removals from a graph (null being the default graph) and from every graph,
+    // guarded by flushLock so removals are never recorded while the stripes are drained
+    private Model removes = new LinkedHashModel();
+    private Model anyGraphRemoves = new LinkedHashModel();
+    private long removeBytes = 0;
+
+    // guards inFlight, the number of flushes sent but not yet acknowledged, and
+    // removalsInFlight, those carrying removals which must not overlap any other flush
+    private final Object inFlightMonitor = new Object();
+    private int inFlight = 0;
+    private int removalsInFlight = 0;
+
+    // first error raised by a background flush, rethrown to the next caller
+    private final AtomicReference<Exception> flushError = new AtomicReference<Exception>();
 
     /**
      * constructor
@@ -66,7 +126,10 @@ public class WriteCacheTimerTask extends TimerTask {
     public WriteCacheTimerTask(MarkLogicClient client) {
         super();
         this.client = client;
-        this.cache = new LinkedHashModel();
+        this.stripes = new Stripe[stripeCount()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
     }
 
     /**
@@ -87,6 +150,24 @@ public class WriteCacheTimerTask extends TimerTask {
         this.cacheSize = cacheSize;
     }
 
+    /**
+     * return maximum (approximate) size in bytes of cached triples
+     *
+     * @return
+     */
+    public long getCacheByteSize() {
+        return this.cacheByteSize;
+    }
+
+    /**
+     * sets maximum (approximate) size in bytes of cached triples
+     *
+     * @param cacheByteSize
+     */
+    public void setCacheByteSize(long cacheByteSize) {
+        this.cacheByteSize = cacheByteSize;
+    }
+
     /**
      * getter cacheMillis
      *
@@ -105,19 +186,55 @@ public class WriteCacheTimerTask extends TimerTask {
         this.cacheMillis = cacheMillis;
     }
 
+    /**
+     * getter maxInFlight
+     *
+     * @return
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * sets maximum number of flushes sent concurrently
+     *
+     * @param maxInFlight
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1.");
+        }
+        synchronized (inFlightMonitor) {
+            this.maxInFlight = maxInFlight;
+            inFlightMonitor.notifyAll();
+        }
+    }
+
     /**
      * tests to see if we should flush cache
      *
+     * runs on a scheduler shared by every connection of a repository so it never
+     * blocks; if a flush is already under way, or maxInFlight flushes are
+     * outstanding, stale triples are left for the next run
      */
     @Override
     public void run() {
-        Date now = new Date();
-        if ( cache.size() > cacheSize || cache.size() > 0 && now.getTime() - lastCacheAccess.getTime() > cacheMillis) {
-            log.debug("Cache stale, flushing");
+        long now = System.currentTimeMillis();
+        if ( isFull() || cacheCount.get() > 0 && now - lastCacheAccess > cacheMillis) {
+            if (!flushLock.tryLock()) {
+                return;
+            }
             try {
-                flush();
-            } catch (MarkLogicSesameException e) {
-                e.printStackTrace();
+                boolean removals = hasRemovals();
+                if (acquireFlushSlot(removals, false)) {
+                    log.debug("Cache stale, flushing");
+                    dispatch(removals);
+                }
+            } catch (MarkLogicSesameException | RuntimeException e) {
+                // an exception escaping would cancel all further scheduled runs
+                log.error("write cache flush failed", e);
+            } finally {
+                flushLock.unlock();
             }
         } else {
             return;
@@ -125,51 +242,460 @@ public class WriteCacheTimerTask extends TimerTask {
     }
 
     /**
-     * flushes the cache, writing triples as graph
+     * flushes the cache, handing the drained triples to a background
+     * thread which writes them as graph
+     *
+     * callers must hold flushLock
      *
      * @throws MarkLogicSesameException
      */
     private void flush() throws MarkLogicSesameException {
-            log.debug("flushing write cache");
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            RDFFormat format = RDFFormat.NQUADS;
+        boolean removals = hasRemovals();
+        acquireFlushSlot(removals, true);
+        dispatch(removals);
+    }
+
+    /**
+     * drains the cache and submits a flush, callers must hold flushLock
+     * and a flush slot, which is released once the flush completes
+     *
+     * @param removals  if the slot was claimed for a flush carrying removals
+     */
+    private void dispatch(boolean removals) {
+        Batch drained = drain();
+        if (drained.isEmpty()) {
+            releaseFlushSlot(removals);
+            return;
+        }
+        log.debug("flushing write cache");
+        try {
+            client.executeFlush(new FlushJob(drained, removals));
+        } catch (RuntimeException e) {
+            releaseFlushSlot(removals);
+            throw e;
+        }
+        lastCacheAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * sends a drained batch to MarkLogic; batches of adds only are serialized
+     * straight into the request body, batches with removals are sent as a
+     * single SPARQL update removing then adding
+     *
+     * @param drained
+     * @throws RDFParseException
+     * @throws MarkLogicSesameException
+     */
+    private void send(Batch drained) throws RDFParseException, MarkLogicSesameException {
+        if (drained.hasRemovals()) {
+            List<Statement> adds = new ArrayList<Statement>();
+            for (Model model : drained.adds) {
+                adds.addAll(model);
+            }
+            client.sendChanges(drained.removes, drained.anyGraphRemoves, adds);
+        } else {
+            send(drained.adds);
+        }
+    }
+
+    /**
+     * sends drained triples to MarkLogic, serializing them straight
+     * into the request body; blank nodes are skolemized as sendChanges
+     * does, so an add is stored the same whether or not removals share its flush
+     *
+     * @param drained
+     * @throws RDFParseException
+     */
+    private void send(final List<Model> drained) throws RDFParseException {
+        final RDFFormat format = RDFFormat.NQUADS;
+        Set<String> graphs = new HashSet<String>();
+        for (Model model : drained) {
+            graphs.addAll(QueryResultCache.graphsOf(model.contexts().toArray(new Resource[0])));
+        }
+        client.sendAdd(new OutputStreamSender() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                try {
+                    RDFWriter writer = Rio.createWriter(format, out);
+                    writer.startRDF();
+                    for (Model model : drained) {
+                        for (Statement st : model) {
+                            writer.handleStatement(client.skolemize(st));
+                        }
+                    }
+                    writer.endRDF();
+                } catch (RDFHandlerException e) {
+                    throw new IOException(e);
+                }
+            }
+        }, format, graphs);
+    }
+
+    /**
+     * claims a flush slot once fewer than maxInFlight flushes, none carrying
+     * removals, are outstanding; a flush carrying removals also waits until no
+     * other flush is outstanding, so it is applied in order
+     *
+     * @param removals  if the flush carries removals
+     * @param wait  if false, returns rather than waiting
+     * @return true if a slot was claimed
+     * @throws MarkLogicSesameException
+     */
+    private boolean acquireFlushSlot(boolean removals, boolean wait) throws MarkLogicSesameException {
+        synchronized (inFlightMonitor) {
+            while (removals ? inFlight > 0 : inFlight >= maxInFlight || removalsInFlight > 0) {
+                if (!wait) {
+                    return false;
+                }
+                try {
+                    inFlightMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MarkLogicSesameException("Interrupted waiting for write cache flush.");
+                }
+            }
+            inFlight++;
+            if (removals) {
+                removalsInFlight++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * releases a slot claimed by acquireFlushSlot
+     *
+     * @param removals  if the slot was claimed for a flush carrying removals
+     */
+    private void releaseFlushSlot(boolean removals) {
+        synchronized (inFlightMonitor) {
+            inFlight--;
+            if (removals) {
+                removalsInFlight--;
+            }
+            inFlightMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * waits until all outstanding flushes have been acknowledged
+     *
+     * @throws MarkLogicSesameException
+     */
+    private void awaitFlushes() throws MarkLogicSesameException {
+        synchronized (inFlightMonitor) {
+            while (inFlight > 0) {
+                try {
+                    inFlightMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MarkLogicSesameException("Interrupted waiting for write cache flush.");
+                }
+            }
+        }
+    }
+
+    /**
+     * rethrows (once) an error raised by a background flush
+     *
+     * @throws MarkLogicSesameException
+     */
+    private void checkFlushError() throws MarkLogicSesameException {
+        Exception e = flushError.getAndSet(null);
+        if (e != null) {
+            MarkLogicSesameException mle = new MarkLogicSesameException("Write cache flush failed: " + e.getMessage());
+            mle.initCause(e);
+            throw mle;
+        }
+    }
+
+    /**
+     * tests if removals are pending, callers must hold flushLock
+     *
+     * @return
+     */
+    private boolean hasRemovals() {
+        return !removes.isEmpty() || !anyGraphRemoves.isEmpty();
+    }
+
+    /**
+     * hands off the contents of every stripe, leaving each with an empty Model,
+     * and pending removals; callers must hold flushLock
+     *
+     * @return batch of adds and removals
+     */
+    private Batch drain() {
+        List<Model> drained = new ArrayList<Model>(stripes.length);
+        for (Stripe stripe : stripes) {
+            Model model;
+            long bytes;
+            stripe.lock.lock();
             try {
-                Rio.write(cache, out, format);
-                InputStream in = new ByteArrayInputStream(out.toByteArray());
-                Resource[] contexts = new Resource[cache.contexts().size()];
-                int i =0;
-                for(Resource ctx:cache.contexts()){
-                    contexts[i]= ctx;
-                    i++;
+                if (stripe.model.isEmpty()) {
+                    continue;
                 }
-                client.sendAdd(in, null, format, contexts);
-            } catch (RDFHandlerException e) {
-                e.printStackTrace();
-            } catch (RDFParseException e) {
-                e.printStackTrace();
+                model = stripe.model;
+                bytes = stripe.bytes;
+                stripe.model = new LinkedHashModel();
+                stripe.bytes = 0;
+            } finally {
+                stripe.lock.unlock();
             }
-            lastCacheAccess = new Date();
-            cache.clear();
+            cacheCount.addAndGet(-model.size());
+            cacheBytes.addAndGet(-bytes);
+            drained.add(model);
+        }
+        Batch batch = new Batch(drained, removes, anyGraphRemoves);
+        if (hasRemovals()) {
+            cacheCount.addAndGet(-(removes.size() + anyGraphRemoves.size()));
+            cacheBytes.addAndGet(-removeBytes);
+            removes = new LinkedHashModel();
+            anyGraphRemoves = new LinkedHashModel();
+            removeBytes = 0;
+            // removals are applied before adds, so removing a quad also added in the batch is redundant
+            if (!batch.removes.isEmpty()) {
+                for (Model model : drained) {
+                    for (Statement st : model) {
+                        batch.removes.remove(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                    }
+                }
+            }
+        }
+        return batch;
     }
 
     /**
-     * forces the cache to flush if there is anything in it
+     * forces the cache to flush if there is anything in it, returning
+     * once every outstanding flush has been acknowledged
      *
      * @throws MarkLogicSesameException
      */
     public void forceRun() throws MarkLogicSesameException {
-        if(cache.size()>0) flush();
+        flushLock.lock();
+        try {
+            flush();
+            awaitFlushes();
+        } finally {
+            flushLock.unlock();
+        }
+        checkFlushError();
     }
 
     /**
-     * add triple to cache Model
+     * records removal of a fully bound triple from a context (null being the default
+     * graph) or, given no context, from every graph; pending adds it covers are
+     * cancelled, whichever stripe holds them, but the removal is still sent as the
+     * triple may already be stored. Flushes in the calling thread if the cache is full
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param contexts  none, or a single context
+     * @throws MarkLogicSesameException
+     */
+    public void remove(Resource subject, URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
+        if (subject == null || predicate == null || object == null || contexts != null && contexts.length > 1) {
+            throw new IllegalArgumentException("Only removal of a fully bound triple from at most one context is cached.");
+        }
+        checkFlushError();
+        boolean anyGraph = contexts == null || contexts.length == 0;
+        flushLock.lock();
+        try {
+            for (Stripe stripe : stripes) {
+                List<Statement> cancelled;
+                long bytes = 0;
+                stripe.lock.lock();
+                try {
+                    if (anyGraph) {
+                        cancelled = new ArrayList<Statement>(stripe.model.filter(subject, predicate, object));
+                    } else {
+                        cancelled = new ArrayList<Statement>(stripe.model.filter(subject, predicate, object, contexts[0]));
+                    }
+                    if (cancelled.isEmpty()) {
+                        continue;
+                    }
+                    for (Statement st : cancelled) {
+                        stripe.model.remove(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                        bytes += estimateBytes(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                    }
+                    stripe.bytes -= bytes;
+                } finally {
+                    stripe.lock.unlock();
+                }
+                cacheCount.addAndGet(-cancelled.size());
+                cacheBytes.addAndGet(-bytes);
+            }
+            boolean recorded = anyGraph ? anyGraphRemoves.add(subject, predicate, object) : removes.add(subject, predicate, object, contexts[0]);
+            if (recorded) {
+                long bytes = estimateBytes(subject, predicate, object, contexts);
+                removeBytes += bytes;
+                cacheCount.incrementAndGet();
+                cacheBytes.addAndGet(bytes);
+            }
+            if (isFull()) {
+                log.debug("Cache full, flushing");
+                flush();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * add triple to cache Model, flushing in the calling thread if
+     * the cache is full
      *
      * @param subject
      * @param predicate
      * @param object
      * @param contexts
+     * @throws MarkLogicSesameException
+     */
+    public void add(Resource subject, URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
+        checkFlushError();
+        long bytes = estimateBytes(subject, predicate, object, contexts);
+        Stripe stripe = stripes[(int) (Thread.currentThread().getId() & (stripes.length - 1))];
+        int added;
+        stripe.lock.lock();
+        try {
+            int before = stripe.model.size();
+            stripe.model.add(subject, predicate, object, contexts);
+            added = stripe.model.size() - before;
+            if (added == 0) {
+                // already cached, nothing more to send
+                bytes = 0;
+            }
+            stripe.bytes += bytes;
+        } finally {
+            stripe.lock.unlock();
+        }
+        cacheCount.addAndGet(added);
+        cacheBytes.addAndGet(bytes);
+        if (isFull()) {
+            flushLock.lock();
+            try {
+                // another thread may have flushed while we waited
+                if (isFull()) {
+                    log.debug("Cache full, flushing");
+                    flush();
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * tests if either the triple count or byte size limit is reached
+     *
+     * @return
+     */
+    private boolean isFull() {
+        return cacheCount.get() >= cacheSize || cacheBytes.get() >= cacheByteSize;
+    }
+
+    /**
+     * estimates the serialized size of a statement added to each of its contexts
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param contexts
+     * @return
+     */
+    private static long estimateBytes(Resource subject, URI predicate, Value object, Resource... contexts) {
+        long bytes = STATEMENT_OVERHEAD + length(subject) + length(predicate) + length(object);
+        if (object instanceof Literal) {
+            Literal lit = (Literal) object;
+            bytes += length(lit.getDatatype()) + (lit.getLanguage() != null ? lit.getLanguage().length() : 0);
+        }
+        if (contexts == null || contexts.length == 0) {
+            return bytes;
+        }
+        long total = 0;
+        for (Resource ctx : contexts) {
+            total += bytes + length(ctx);
+        }
+        return total;
+    }
+
+    /**
+     * length of a value's string form, zero for null
+     *
+     * @param value
+     * @return
+     */
+    private static long length(Value value) {
+        return value == null ? 0 : value.stringValue().length();
+    }
+
+    /**
+     * number of stripes, the smallest power of two covering available processors
+     *
+     * @return
+     */
+    private static int stripeCount() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors()) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    /**
+     * sends one batch of drained triples, recording any failure
+     */
+    private class FlushJob implements Runnable {
+        private final Batch drained;
+        private final boolean removals;
+
+        private FlushJob(Batch drained, boolean removals) {
+            this.drained = drained;
+            this.removals = removals;
+        }
+
+        @Override
+        public void run() {
+            try {
+                send(drained);
+            } catch (Exception e) {
+                log.error("write cache flush failed", e);
+                flushError.compareAndSet(null, e);
+            } finally {
+                releaseFlushSlot(removals);
+            }
+        }
+    }
+
+    /**
+     * adds drained from the stripes and removals pending at the time
+     */
+    private static class Batch {
+        private final List<Model> adds;
+        private final Model removes;
+        private final Model anyGraphRemoves;
+
+        private Batch(List<Model> adds, Model removes, Model anyGraphRemoves) {
+            this.adds = adds;
+            this.removes = removes;
+            this.anyGraphRemoves = anyGraphRemoves;
+        }
+
+        private boolean hasRemovals() {
+            return !removes.isEmpty() || !anyGraphRemoves.isEmpty();
+        }
+
+        private boolean isEmpty() {
+            return adds.isEmpty() && !hasRemovals();
+        }
+    }
+
+    /**
+     * a lock guarded portion of the cache
      */
-    public void add(Resource subject, URI predicate, Value object, Resource... contexts) {
-        cache.add(subject,predicate,object,contexts);
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private Model model = new LinkedHashModel();
+        private long bytes = 0;
     }
-}
\ No newline at end of file
+}
@@ -44,6 +44,8 @@ public class MarkLogicGraphQuery extends MarkLogicQuery implements GraphQuery,Ma
 
     protected final Logger logger = LoggerFactory.getLogger(MarkLogicGraphQuery.class);
 
+    private boolean inlineResults = false;
+
     /**
      * constructor
      *
@@ -56,6 +58,25 @@ public class MarkLogicGraphQuery extends MarkLogicQuery implements GraphQuery,Ma
         super(client, bindingSet, baseUri, queryString, graphPerms, queryDef, rulesets);
     }
 
+    /**
+     * returns if results are parsed on the calling thread
+     *
+     * @return boolean
+     */
+    public boolean isInlineResults() {
+        return inlineResults;
+    }
+
+    /**
+     * sets if results are parsed on the calling thread, before evaluate() returns,
+     * rather than in the background; worthwhile for queries known to return few statements
+     *
+     * @param inlineResults
+     */
+    public void setInlineResults(boolean inlineResults) {
+        this.inlineResults = inlineResults;
+    }
+
     /**
      * evaluate graph query
      *
@@ -66,7 +87,7 @@ public class MarkLogicGraphQuery extends MarkLogicQuery implements GraphQuery,Ma
     public GraphQueryResult evaluate()
             throws QueryEvaluationException {
         try {
-            return getMarkLogicClient().sendGraphQuery(getQueryString(),getBindings(),getIncludeInferred(),getBaseURI());
+            return getMarkLogicClient().sendGraphQuery(getQueryString(),getBindings(),getIncludeInferred(),getBaseURI(),isInlineResults());
         } catch (IOException e) {
             throw new QueryEvaluationException(e);
         }
@@ -29,7 +29,6 @@ import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.Dataset;
 import org.openrdf.query.Query;
 import org.openrdf.query.impl.AbstractQuery;
-import org.openrdf.repository.sparql.query.QueryStringUtil;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +46,8 @@ public class MarkLogicQuery extends AbstractQuery implements Query,MarkLogicClie
 
     private String queryString;
 
+    private QueryTemplate template;
+
     private String baseURI;
 
     private SPARQLQueryBindingSet bindingSet;
@@ -94,12 +95,23 @@ public class MarkLogicQuery extends AbstractQuery implements Query,MarkLogicClie
     }
 
     /**
-     * sets the query string
+     * returns the query string with inlined the bindings that cannot be sent to
+     * MarkLogic as server side bindings, the query string being scanned for
+     * variables once and reused by later evaluations
      *
      * @return
      */
     public String getQueryString() {
-        return QueryStringUtil.getQueryString(this.queryString, getBindings());
+        SPARQLQueryBindingSet bindings = getBindings();
+        if (bindings == null || bindings.size() == 0) {
+            return this.queryString;
+        }
+        QueryTemplate template = this.template;
+        if (template == null) {
+            template = new QueryTemplate(this.queryString);
+            this.template = template;
+        }
+        return template.render(bindings);
     }
 
     /**
@@ -109,6 +121,7 @@ public class MarkLogicQuery extends AbstractQuery implements Query,MarkLogicClie
      */
     public void setQueryString(String queryString) {
         this.queryString = queryString;
+        this.template = null;
     }
 
     /**
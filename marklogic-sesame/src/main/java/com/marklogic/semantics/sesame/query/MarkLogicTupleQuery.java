@@ -44,6 +44,8 @@ public class MarkLogicTupleQuery extends MarkLogicQuery implements TupleQuery,Ma
     protected final long start = 1;
     protected final long pageLength=-1; // this value is a flag to not set setPageLength()
 
+    private boolean inlineResults = false;
+
     /**
      * constructor
      *
@@ -57,7 +59,29 @@ public class MarkLogicTupleQuery extends MarkLogicQuery implements TupleQuery,Ma
     }
 
     /**
-     * evaluate tuple query
+     * returns if results are parsed on the calling thread
+     *
+     * @return boolean
+     */
+    public boolean isInlineResults() {
+        return inlineResults;
+    }
+
+    /**
+     * sets if results are parsed on the calling thread, before evaluate() returns,
+     * rather than in the background; for small results, such as counts, this avoids
+     * handing off to a result thread. Results with a pageLength no more than the
+     * client's inline result threshold are always parsed inline
+     *
+     * @param inlineResults
+     */
+    public void setInlineResults(boolean inlineResults) {
+        this.inlineResults = inlineResults;
+    }
+
+    /**
+     * evaluate tuple query, results being read a page at a time if the client
+     * has a result page length, see MarkLogicClient.setResultPageLength()
      *
      * @return TupleQueryResult
      * @throws QueryEvaluationException
@@ -78,7 +102,7 @@ public class MarkLogicTupleQuery extends MarkLogicQuery implements TupleQuery,Ma
     public TupleQueryResult evaluate(long start, long pageLength)
             throws QueryEvaluationException {
         try {
-            return getMarkLogicClient().sendTupleQuery(getQueryString(), getBindings(), start, pageLength, getIncludeInferred(), getBaseURI());
+            return getMarkLogicClient().sendTupleQuery(getQueryString(), getBindings(), start, pageLength, getIncludeInferred(), getBaseURI(), isInlineResults());
         }catch (RepositoryException e) {
             throw new QueryEvaluationException(e.getMessage(), e);
         }catch (MalformedQueryException e) {
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2015 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.query;
+
+
+import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.util.Literals;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.parser.sparql.SPARQLUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SPARQL query string scanned once for variables, so bindings can be inlined
+ * on each evaluation without rescanning the query
+ *
+ * only values MarkLogic cannot take as server side bindings are inlined, the
+ * query string otherwise staying constant so the server can reuse its plan
+ *
+ * renders as QueryStringUtil.getQueryString does, a bound variable before the
+ * first '{' becoming (value as ?name) and after it value, but leaves IRIs, string
+ * literals and comments untouched
+ *
+ * @author James Fuller
+ */
+class QueryTemplate {
+
+    private final String queryString;
+
+    // text before each variable occurrence, then the text after the last one
+    private final String[] parts;
+    // index into vars of each variable occurrence
+    private final int[] slots;
+    // true if occurrence is before the first '{'
+    private final boolean[] projected;
+    // variable names and the tokens they appeared as
+    private final String[] vars;
+    private final String[] tokens;
+
+    /**
+     * constructor
+     *
+     * @param queryString
+     */
+    QueryTemplate(String queryString) {
+        this.queryString = queryString;
+        List<String> parts = new ArrayList<String>();
+        List<Integer> slots = new ArrayList<Integer>();
+        List<Boolean> projected = new ArrayList<Boolean>();
+        List<String> vars = new ArrayList<String>();
+        List<String> tokens = new ArrayList<String>();
+        boolean inBody = false;
+        int last = 0;
+        int i = 0;
+        int len = queryString.length();
+        while (i < len) {
+            char c = queryString.charAt(i);
+            if (c == '#') {
+                i = skipComment(queryString, i);
+            } else if (c == '"' || c == '\'') {
+                i = skipString(queryString, i);
+            } else if (c == '<') {
+                i = skipIRI(queryString, i);
+            } else if (c == '{') {
+                inBody = true;
+                i++;
+            } else if ((c == '?' || c == '$') && i + 1 < len && isVarChar(queryString.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < len && isVarChar(queryString.charAt(end))) {
+                    end++;
+                }
+                String name = queryString.substring(i + 1, end);
+                int slot = vars.indexOf(name);
+                if (slot < 0) {
+                    slot = vars.size();
+                    vars.add(name);
+                    tokens.add(queryString.substring(i, end));
+                }
+                parts.add(queryString.substring(last, i));
+                slots.add(slot);
+                projected.add(!inBody);
+                last = end;
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        parts.add(queryString.substring(last));
+        this.parts = parts.toArray(new String[parts.size()]);
+        this.slots = new int[slots.size()];
+        this.projected = new boolean[slots.size()];
+        for (int n = 0; n < this.slots.length; n++) {
+            this.slots[n] = slots.get(n);
+            this.projected[n] = projected.get(n);
+        }
+        this.vars = vars.toArray(new String[vars.size()]);
+        this.tokens = tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * returns the query string scanned
+     *
+     * @return String
+     */
+    String getQueryString() {
+        return queryString;
+    }
+
+    /**
+     * returns query string with variables bound to values that cannot be sent as
+     * server side bindings replaced by their values
+     *
+     * @param bindings
+     * @return String
+     * @throws IllegalArgumentException if a variable is bound to a blank node
+     */
+    String render(BindingSet bindings) {
+        if (bindings == null || bindings.size() == 0 || vars.length == 0) {
+            return queryString;
+        }
+        String[] values = new String[vars.length];
+        boolean bound = false;
+        for (int n = 0; n < vars.length; n++) {
+            Value value = bindings.getValue(vars[n]);
+            if (value != null && !MarkLogicClient.isServerBindable(value)) {
+                values[n] = toString(value);
+                bound = true;
+            }
+        }
+        if (!bound) {
+            return queryString;
+        }
+        StringBuilder sb = new StringBuilder(queryString.length() + 64 * vars.length);
+        for (int n = 0; n < slots.length; n++) {
+            sb.append(parts[n]);
+            int slot = slots[n];
+            String value = values[slot];
+            if (value == null) {
+                sb.append(tokens[slot]);
+            } else if (projected[n]) {
+                sb.append('(').append(value).append(" as ?").append(vars[slot]).append(')');
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append(parts[slots.length]).toString();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * returns SPARQL form of value
+     *
+     * @param value
+     * @return String
+     */
+    private static String toString(Value value) {
+        if (value instanceof URI) {
+            return "<" + value.stringValue() + ">";
+        }
+        if (value instanceof Literal) {
+            Literal literal = (Literal) value;
+            StringBuilder sb = new StringBuilder();
+            sb.append('"').append(SPARQLUtil.encodeString(literal.getLabel())).append('"');
+            if (Literals.isLanguageLiteral(literal)) {
+                sb.append('@').append(literal.getLanguage());
+            } else if (literal.getDatatype() != null) {
+                sb.append("^^<").append(literal.getDatatype().stringValue()).append('>');
+            }
+            return sb.toString();
+        }
+        if (value instanceof BNode) {
+            throw new IllegalArgumentException("BNode references not supported by SPARQL end-points");
+        }
+        throw new IllegalArgumentException("Unsupported value " + value);
+    }
+
+    /**
+     * returns true if c may appear in a variable name
+     *
+     * @param c
+     * @return boolean
+     */
+    private static boolean isVarChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '\u00B7';
+    }
+
+    /**
+     * returns index after comment starting at i
+     *
+     * @param s
+     * @param i
+     * @return int
+     */
+    private static int skipComment(String s, int i) {
+        while (i < s.length() && s.charAt(i) != '\n' && s.charAt(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * returns index after string literal starting at i, long or short, single or double quoted
+     *
+     * @param s
+     * @param i
+     * @return int
+     */
+    private static int skipString(String s, int i) {
+        char quote = s.charAt(i);
+        boolean isLong = s.startsWith("" + quote + quote + quote, i);
+        i += isLong ? 3 : 1;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote && (!isLong || s.startsWith("" + quote + quote + quote, i))) {
+                return i + (isLong ? 3 : 1);
+            } else if (!isLong && (c == '\n' || c == '\r')) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return s.length();
+    }
+
+    /**
+     * returns index after IRI starting at i, or i + 1 if the '<' is a less than operator
+     *
+     * @param s
+     * @param i
+     * @return int
+     */
+    private static int skipIRI(String s, int i) {
+        for (int j = i + 1; j < s.length(); j++) {
+            char c = s.charAt(j);
+            if (c == '>') {
+                return j + 1;
+            }
+            if (c <= ' ' || "<\"{}|^`\\".indexOf(c) >= 0) {
+                break;
+            }
+        }
+        return i + 1;
+    }
+}
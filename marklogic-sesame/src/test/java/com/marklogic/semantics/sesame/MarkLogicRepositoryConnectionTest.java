@@ -19,6 +19,11 @@
  */
 package com.marklogic.semantics.sesame;
 
+import com.marklogic.semantics.sesame.client.MarkLogicBulkLoader;
+import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import info.aduna.iteration.CloseableIteration;
 import info.aduna.iteration.Iteration;
 import info.aduna.iteration.Iterations;
@@ -40,13 +45,26 @@ import org.openrdf.rio.rdfxml.RDFXMLWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -205,6 +223,63 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
         Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
         Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
         conn.add(inputFile, baseURI, RDFFormat.TURTLE, context1, context2);
+        Assert.assertEquals(4, conn.size(context1));
+        Assert.assertEquals(4, conn.size(context2));
+        conn.clear(context1, context2);
+    }
+
+    @Test
+    public void testAddTurtleWithInputStreamToMultipleContexts() throws Exception {
+        File inputFile = new File("src/test/resources/testdata/default-graph-1.ttl");
+        FileInputStream is = new FileInputStream(inputFile);
+        String baseURI = "http://example.org/example1/";
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        try {
+            conn.add(is, baseURI, RDFFormat.TURTLE, context1, context2);
+        } finally {
+            is.close();
+        }
+        Assert.assertEquals(4, conn.size(context1));
+        Assert.assertEquals(4, conn.size(context2));
+        conn.clear(context1, context2);
+    }
+
+    @Test
+    public void testAddTurtleWithInputStreamToMultipleContextsAndNullBaseURI() throws Exception {
+        File inputFile = new File("src/test/resources/testdata/default-graph-1.ttl");
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        try (InputStream is = new FileInputStream(inputFile)) {
+            conn.add(is, null, RDFFormat.TURTLE, context1, context2);
+        }
+        Assert.assertEquals(4, conn.size(context1));
+        Assert.assertEquals(4, conn.size(context2));
+        conn.clear(context1, context2);
+    }
+
+    @Test
+    public void testAddTurtleWithReader() throws Exception {
+        String turtle = "<http://example.org/s> <http://example.org/p> \"caf\u00e9 \u65e5\u672c \uD83D\uDE00\" .";
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        conn.add(new StringReader(turtle), "http://example.org/", RDFFormat.TURTLE, context1);
+        conn.add(new StringReader(turtle), "http://example.org/", RDFFormat.TURTLE, context1, context2);
+        Assert.assertEquals(1, conn.size(context1));
+        Assert.assertEquals(1, conn.size(context2));
+        Statement st = conn.getStatements(null, null, null, false, context2).next();
+        Assert.assertEquals("caf\u00e9 \u65e5\u672c \uD83D\uDE00", st.getObject().stringValue());
+        conn.clear(context1, context2);
+    }
+
+    @Test
+    public void testAddTurtleWithReaderToMultipleContextsAndNullBaseURI() throws Exception {
+        String turtle = "<http://example.org/s> <http://example.org/p> \"o\" .";
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        conn.add(new StringReader(turtle), null, RDFFormat.TURTLE, context1, context2);
+        Assert.assertEquals(1, conn.size(context1));
+        Assert.assertEquals(1, conn.size(context2));
         conn.clear(context1, context2);
     }
 
@@ -240,6 +315,46 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
         conn.clear(context1, context2);
     }
 
+    @Test
+    public void testAddGZippedAndZippedTurtle() throws Exception {
+        File inputFile = new File("src/test/resources/testdata/default-graph-1.ttl");
+        byte[] turtle = java.nio.file.Files.readAllBytes(inputFile.toPath());
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(turtle);
+        }
+        ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(zipped)) {
+            out.putNextEntry(new ZipEntry("default-graph-1.ttl"));
+            out.write(turtle);
+            out.closeEntry();
+        }
+        String baseURI = "http://example.org/example1/";
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        conn.add(new ByteArrayInputStream(gzipped.toByteArray()), baseURI, RDFFormat.TURTLE, context1);
+        conn.add(new ByteArrayInputStream(zipped.toByteArray()), baseURI, null, context2);
+        Assert.assertEquals(4, conn.size(context1));
+        Assert.assertEquals(4, conn.size(context2));
+        conn.clear(context1, context2);
+    }
+
+    @Test
+    public void testAddTurtleWithCompressedUploads() throws Exception {
+        File inputFile = new File("src/test/resources/testdata/default-graph-1.ttl");
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        rep.getMarkLogicClient().setCompressUploads(true);
+        MarkLogicRepositoryConnection compressing = rep.getConnection();
+        rep.getMarkLogicClient().setCompressUploads(false);
+        try {
+            compressing.add(inputFile, "http://example.org/example1/", RDFFormat.TURTLE, context1);
+            Assert.assertEquals(4, conn.size(context1));
+        } finally {
+            compressing.clear(context1);
+            compressing.close();
+        }
+    }
+
     // https://github.com/marklogic/marklogic-sesame/issues/19
     @Test
     public void testAddTurtleWithDefaultContext() throws Exception {
@@ -262,6 +377,78 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
         conn.clear(context3);
     }
 
+    @Test
+    public void testAddTurtleWithFileURLAndNoFormat() throws Exception {
+        URL dataURL = new File("src/test/resources/testdata/default-graph-1.ttl").toURI().toURL();
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        conn.add(dataURL, null, null, context1);
+        Assert.assertEquals(4, conn.size(context1));
+        conn.clear(context1);
+    }
+
+    @Test
+    public void testAddWithHttpURL() throws Exception {
+        final byte[] data = Files.readAllBytes(new File("src/test/resources/testdata/default-graph-1.ttl").toPath());
+        final AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/data.ttl", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "text/turtle");
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                    out.write(data);
+                }
+            }
+        });
+        server.start();
+
+        String base = "http://localhost:" + server.getAddress().getPort();
+        URL dataURL = new URL(base + "/data.ttl");
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        rep.getMarkLogicClient().setURLConditionalGet(true);
+        MarkLogicRepositoryConnection conditional = rep.getConnection();
+        rep.getMarkLogicClient().setURLConditionalGet(false);
+        try {
+            // gzip content encoding is decoded, format is taken from content type
+            conditional.add(dataURL, null, null, context1);
+            Assert.assertEquals(4, conditional.size(context1));
+
+            // unchanged content is skipped
+            conditional.add(dataURL, null, null, context1);
+            Assert.assertEquals(1, notModified.get());
+            Assert.assertEquals(4, conditional.size(context1));
+
+            // a load rolled back is not taken as loaded
+            conditional.begin();
+            conditional.add(dataURL, null, null, context2);
+            conditional.rollback();
+            conditional.add(dataURL, null, null, context2);
+            Assert.assertEquals(1, notModified.get());
+            Assert.assertEquals(4, conditional.size(context2));
+
+            try {
+                conditional.add(new URL(base + "/missing.ttl"), null, RDFFormat.TURTLE, context1);
+                Assert.fail("added from a url the server could not find");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("404"));
+            }
+        } finally {
+            server.stop(0);
+            conditional.clear(context1, context2);
+            conditional.close();
+        }
+    }
+
     // this test requires access to https://raw.githubusercontent.com/marklogic/marklogic-sesame/develop/marklogic-sesame/src/test/resources/testdata/testData.trig
     @Test
     public void testAddTrigWithURL() throws Exception {
@@ -303,6 +490,157 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
         conn.clear(graph1,graph2,graph3,graph4);
     }
 
+    @Test
+    public void testBulkLoadNQuads() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/nquads1.nq");
+
+        Resource graph1 = conn.getValueFactory().createURI("http://example.org/graph1");
+        Resource graph2 = conn.getValueFactory().createURI("http://example.org/graph2");
+        Resource graph3 = conn.getValueFactory().createURI("http://example.org/graph3");
+        Resource graph4 = conn.getValueFactory().createURI("http://example.org/graph4");
+
+        final long[] batches = new long[1];
+        MarkLogicBulkLoader loader = conn.newBulkLoader();
+        loader.setThreads(2);
+        loader.setChunkSize(100);
+        loader.setProgressListener(new MarkLogicBulkLoader.ProgressListener() {
+            @Override
+            public synchronized void progress(long bytesLoaded, long totalBytes, long batchesLoaded, long totalBatches) {
+                batches[0] = totalBatches;
+            }
+        });
+        loader.load(inputFile, RDFFormat.NQUADS);
+
+        Assert.assertEquals(4L, batches[0]);
+        Assert.assertEquals(4L, loader.getAcknowledgedBatches());
+        Assert.assertEquals(4L, conn.size(graph1, graph2, graph3, graph4));
+        String checkQuery = "ASK {GRAPH <http://example.org/graph4> { <http://example.org/kennedy/person1> <http://example.org/kennedy/death-year> '1969' . } }";
+        Assert.assertTrue(conn.prepareBooleanQuery(QueryLanguage.SPARQL, checkQuery).evaluate());
+
+        conn.clear(graph1,graph2,graph3,graph4);
+    }
+
+    @Test
+    public void testBulkLoadNTriplesBlankNodes() throws Exception{
+        File inputFile = File.createTempFile("bulkload", ".nt");
+        inputFile.deleteOnExit();
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(inputFile), "UTF-8")) {
+            out.write("_:alice <http://xmlns.com/foaf/0.1/name> \"Alice _:not-a-node\" .\n");
+            out.write("_:alice <http://xmlns.com/foaf/0.1/mbox> <mailto:alice@work.example>.\n");
+        }
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/bulkload");
+
+        MarkLogicBulkLoader loader = conn.newBulkLoader();
+        loader.setChunkSize(1);
+        loader.load(inputFile, RDFFormat.NTRIPLES, context1);
+
+        Assert.assertEquals(2L, loader.getAcknowledgedBatches());
+        // a blank node is the same node in every batch
+        String checkQuery = "ASK { GRAPH <http://marklogic.com/test/bulkload> { ?a <http://xmlns.com/foaf/0.1/name> 'Alice _:not-a-node' ; <http://xmlns.com/foaf/0.1/mbox> <mailto:alice@work.example> . } }";
+        Assert.assertTrue(conn.prepareBooleanQuery(QueryLanguage.SPARQL, checkQuery).evaluate());
+
+        conn.clear(context1);
+    }
+
+    @Test
+    public void testBulkLoadWithCheckpoint() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/nquads1.nq");
+        File checkpoint = File.createTempFile("bulkload", ".checkpoint");
+        Assert.assertTrue(checkpoint.delete());
+
+        Resource graph1 = conn.getValueFactory().createURI("http://example.org/graph1");
+        Resource graph2 = conn.getValueFactory().createURI("http://example.org/graph2");
+        Resource graph3 = conn.getValueFactory().createURI("http://example.org/graph3");
+        Resource graph4 = conn.getValueFactory().createURI("http://example.org/graph4");
+
+        MarkLogicBulkLoader loader = conn.newBulkLoader();
+        loader.setChunkSize(100);
+        loader.setCheckpointFile(checkpoint);
+        loader.load(inputFile, RDFFormat.NQUADS);
+
+        // checkpoint is removed once the load completes
+        Assert.assertFalse(checkpoint.exists());
+        Assert.assertEquals(4L, loader.getAcknowledgedBatches());
+        Assert.assertEquals(4L, conn.size(graph1, graph2, graph3, graph4));
+
+        conn.clear(graph1,graph2,graph3,graph4);
+    }
+
+    @Test
+    public void testBulkLoadResumesFromCheckpoint() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/nquads1.nq");
+        File checkpoint = File.createTempFile("bulkload", ".checkpoint");
+        checkpoint.deleteOnExit();
+
+        Resource graph1 = conn.getValueFactory().createURI("http://example.org/graph1");
+        Resource graph2 = conn.getValueFactory().createURI("http://example.org/graph2");
+        Resource graph3 = conn.getValueFactory().createURI("http://example.org/graph3");
+        Resource graph4 = conn.getValueFactory().createURI("http://example.org/graph4");
+
+        // checkpoint of an earlier load of the file that got through its first two batches
+        Properties props = new Properties();
+        props.setProperty("input", inputFile.getCanonicalPath());
+        props.setProperty("format", RDFFormat.NQUADS.getName());
+        props.setProperty("length", String.valueOf(inputFile.length()));
+        props.setProperty("lastModified", String.valueOf(inputFile.lastModified()));
+        props.setProperty("batchUnit", "100");
+        props.setProperty("contexts", "[]");
+        props.setProperty("loadId", "");
+        props.setProperty("blankNodePrefix", "http://marklogic.com/semantics/blank/test/");
+        props.setProperty("acknowledgedBatches", "2");
+        try (FileOutputStream out = new FileOutputStream(checkpoint)) {
+            props.store(out, null);
+        }
+
+        final long[] batches = new long[1];
+        MarkLogicBulkLoader loader = conn.newBulkLoader();
+        loader.setChunkSize(100);
+        loader.setCheckpointFile(checkpoint);
+        loader.setProgressListener(new MarkLogicBulkLoader.ProgressListener() {
+            @Override
+            public synchronized void progress(long bytesLoaded, long totalBytes, long batchesLoaded, long totalBatches) {
+                batches[0] = batchesLoaded;
+            }
+        });
+
+        // a stream cannot be matched to the checkpoint without a load id
+        try (InputStream in = new FileInputStream(inputFile)) {
+            loader.load(in, "http://example.org/example1/", RDFFormat.NQUADS);
+            Assert.fail("stream resumed without a load id");
+        } catch (MarkLogicSesameException e) {
+            Assert.assertTrue(checkpoint.exists());
+        }
+
+        loader.load(inputFile, RDFFormat.NQUADS);
+
+        // only the batches after the checkpoint are sent
+        Assert.assertEquals(2L, batches[0]);
+        Assert.assertEquals(4L, loader.getAcknowledgedBatches());
+        Assert.assertFalse(checkpoint.exists());
+        Assert.assertEquals(0L, conn.size(graph1, graph2));
+        Assert.assertEquals(2L, conn.size(graph3, graph4));
+
+        conn.clear(graph1,graph2,graph3,graph4);
+    }
+
+    @Test
+    public void testBulkLoadTurtle() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/named-graph-1.ttl");
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/bulkload");
+
+        MarkLogicBulkLoader loader = conn.newBulkLoader();
+        loader.setBatchSize(1);
+        loader.load(inputFile, RDFFormat.TURTLE, context1);
+
+        Assert.assertEquals(4L, loader.getAcknowledgedBatches());
+        Assert.assertEquals(4L, conn.size(context1));
+        // blank nodes are shared across batches
+        String checkQuery = "ASK { GRAPH <http://marklogic.com/test/bulkload> { ?a <http://xmlns.com/foaf/0.1/name> 'Alice' ; <http://xmlns.com/foaf/0.1/mbox> <mailto:alice@work.example> . } }";
+        Assert.assertTrue(conn.prepareBooleanQuery(QueryLanguage.SPARQL, checkQuery).evaluate());
+
+        conn.clear(context1);
+    }
+
     @Test
     public void testAddNquadWithInputStream() throws Exception {
         File inputFile = new File("src/test/resources/testdata/nquads1.nq");
@@ -450,6 +788,39 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
         conn.clear(context1);
     }
 
+    @Test
+    public void testSizeWithCountCache() throws Exception {
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        ValueFactory f= conn.getValueFactory();
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+        URI person = f.createURI("http://example.org/ontology/Person");
+        Literal alicesName = f.createLiteral("Alice");
+        MarkLogicClient client = rep.getMarkLogicClient();
+        client.setCountCacheMillis(60000);
+        try {
+            Assert.assertTrue(conn.isEmpty());
+            conn.add(alice, RDF.TYPE, person, context1);
+            conn.add(alice, name, alicesName, context1, context2);
+            Assert.assertEquals(3, conn.size());
+            Assert.assertEquals(2, conn.size(context1));
+            // adding an existing triple leaves the count unchanged
+            conn.add(alice, RDF.TYPE, person, context1);
+            Assert.assertEquals(2, conn.size(context1));
+            Assert.assertEquals(1, conn.size(context2));
+            conn.clear(context1);
+            Assert.assertEquals(0, conn.size(context1));
+            Assert.assertEquals(1, conn.size());
+            Assert.assertFalse(conn.isEmpty());
+            conn.clear(context2);
+            Assert.assertTrue(conn.isEmpty());
+        } finally {
+            client.setCountCacheMillis(0);
+            conn.clear(context1, context2);
+        }
+    }
+
     @Test
     public void testModel() throws Exception{
         Resource context5 = conn.getValueFactory().createURI("http://marklogic.com/test/context5");
@@ -546,6 +917,35 @@ conn.sync();
         conn.clear(context2);
     }
 
+    @Test
+    public void testAddStatementsBatched() throws Exception{
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+
+        ValueFactory f= conn.getValueFactory();
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        rep.getMarkLogicClient().setWriteCacheEnabled(false);
+        rep.getMarkLogicClient().setAddBatchSize(2);
+        conn.close();
+        conn = rep.getConnection();
+
+        Model model = new LinkedHashModel();
+        for (int i = 0; i < 5; i++) {
+            model.add(f.createURI("http://example.org/people/p" + i), name, f.createLiteral("Person \"" + i + "\""), context1);
+        }
+        model.add(f.createBNode(), name, f.createLiteral("Nobody", "en"), context1);
+        conn.add(model, context2);
+
+        Assert.assertEquals(6L, conn.size(context1));
+        Assert.assertEquals(6L, conn.size(context2));
+
+        String checkQuery = "ASK { GRAPH <http://marklogic.com/test/context2> {<http://example.org/people/p3> <http://example.org/ontology/name> 'Person \"3\"' .}}";
+        Assert.assertTrue(conn.prepareBooleanQuery(QueryLanguage.SPARQL, checkQuery).evaluate());
+
+        conn.clear(context1, context2);
+    }
+
     @Test
     public void testStatementWithDefinedContext1() throws Exception{
         Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
@@ -821,6 +1221,35 @@ conn.sync();
         Assert.assertEquals(0L, conn.size(context1, context2, context3));
     }
 
+    @Test
+    public void testRemoveStatementsBatched()
+            throws Exception
+    {
+        rep.getMarkLogicClient().setRemoveBatchSize(2);
+        conn.close();
+        conn = rep.getConnection();
+
+        ValueFactory f= conn.getValueFactory();
+        Resource context1 = f.createURI("http://marklogic.com/test/context1");
+        Resource context2 = f.createURI("http://marklogic.com/test/context2");
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        Model model = new LinkedHashModel();
+        for (int i = 0; i < 5; i++) {
+            model.add(f.createURI("http://example.org/people/p" + i), name, f.createLiteral("Person " + i));
+        }
+        conn.add(model, context1);
+        conn.add(model, context2);
+        Assert.assertEquals(10L, conn.size(context1, context2));
+
+        conn.remove(model, context1);
+        Assert.assertEquals(0L, conn.size(context1));
+        Assert.assertEquals(5L, conn.size(context2));
+
+        conn.remove(model);
+        Assert.assertEquals(0L, conn.size(context1, context2));
+    }
+
     // https://github.com/marklogic/marklogic-sesame/issues/68
     @Test
     public void testGetStatementWithNullContext()
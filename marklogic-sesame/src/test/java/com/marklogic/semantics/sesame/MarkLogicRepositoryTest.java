@@ -28,6 +28,8 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.UpdateExecutionException;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
@@ -129,4 +131,128 @@ public class MarkLogicRepositoryTest extends SesameTestBase {
         writerRep.shutDown();
         readerRep.shutDown();
     }
+
+    @Test
+    public void testPooledConnections()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.setPooled(true);
+        rep.getConnectionPool().setMaxSize(2);
+        rep.getConnectionPool().setMaxWaitMillis(100);
+        rep.getConnectionPool().setTestOnBorrow(true);
+        rep.initialize();
+
+        MarkLogicRepositoryConnection conn1 = rep.getConnection();
+        MarkLogicRepositoryConnection conn2 = rep.getConnection();
+        Assert.assertEquals(2, rep.getConnectionPool().getSize());
+        conn1.close();
+        Assert.assertEquals(1, rep.getConnectionPool().getIdleCount());
+
+        MarkLogicRepositoryConnection conn3 = rep.getConnection();
+        Assert.assertNotSame(conn1, conn3);
+        Assert.assertFalse(conn1.isOpen());
+        Assert.assertTrue(conn3.isOpen());
+        Assert.assertFalse(conn3.isActive());
+        Assert.assertEquals(0, rep.getConnectionPool().getIdleCount());
+
+        conn2.close();
+        conn3.close();
+        rep.shutDown();
+        Assert.assertEquals(0, rep.getConnectionPool().getSize());
+    }
+
+    @Test
+    public void testPooledConnectionClosedTwice()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.setPooled(true);
+        rep.getConnectionPool().setMaxSize(2);
+        rep.initialize();
+
+        MarkLogicRepositoryConnection conn1 = rep.getConnection();
+        conn1.close();
+        conn1.close();
+        Assert.assertEquals(1, rep.getConnectionPool().getIdleCount());
+        Assert.assertEquals(1, rep.getConnectionPool().getSize());
+
+        MarkLogicRepositoryConnection conn2 = rep.getConnection();
+        MarkLogicRepositoryConnection conn3 = rep.getConnection();
+        Assert.assertEquals(2, rep.getConnectionPool().getSize());
+        try {
+            exception.expect(RepositoryException.class);
+            exception.expectMessage("connection is closed.");
+            conn1.sync();
+        } finally {
+            conn2.close();
+            conn3.close();
+            rep.shutDown();
+        }
+    }
+
+    @Test
+    public void testPooledConnectionsExhausted()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.setPooled(true);
+        rep.getConnectionPool().setMaxSize(1);
+        rep.getConnectionPool().setMaxWaitMillis(100);
+        rep.initialize();
+
+        MarkLogicRepositoryConnection conn = rep.getConnection();
+        try {
+            exception.expect(RepositoryException.class);
+            exception.expectMessage("Timed out waiting for a pooled connection.");
+            rep.getConnection();
+        } finally {
+            conn.close();
+            rep.shutDown();
+        }
+    }
+
+    @Test
+    public void testSharedScheduler()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.setSchedulerThreads(2);
+        rep.initialize();
+
+        MarkLogicRepositoryConnection[] conns = new MarkLogicRepositoryConnection[20];
+        for (int i = 0; i < conns.length; i++) {
+            conns[i] = rep.getConnection();
+        }
+        int schedulerThreads = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("marklogic-sesame-scheduler")) {
+                Assert.assertTrue(t.isDaemon());
+                schedulerThreads++;
+            }
+        }
+        Assert.assertTrue(schedulerThreads <= 2);
+        for (MarkLogicRepositoryConnection conn : conns) {
+            conn.close();
+        }
+        rep.shutDown();
+    }
+
+    @Test
+    public void testBoundedResultExecutor()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.setResultThreads(1);
+        rep.setResultQueueLength(0);
+        rep.initialize();
+
+        MarkLogicRepositoryConnection conn = rep.getConnection();
+        String query = "SELECT ?s ?p ?o WHERE {?s ?p ?o} LIMIT 100";
+        TupleQueryResult result = conn.prepareTupleQuery(query).evaluate();
+        try {
+            exception.expect(QueryEvaluationException.class);
+            exception.expectMessage("Query result rejected");
+            conn.prepareTupleQuery(query).evaluate();
+        } finally {
+            result.close();
+            conn.close();
+            rep.shutDown();
+        }
+    }
 }
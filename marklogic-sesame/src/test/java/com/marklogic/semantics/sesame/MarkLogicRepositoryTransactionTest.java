@@ -192,4 +192,33 @@ public class MarkLogicRepositoryTransactionTest extends SesameTestBase {
         assertEquals("expected 4",conn.size(), 4L);
     }
 
+
+    @Test
+    public void testConcurrentConnectionTransactions()
+            throws Exception
+    {
+        MarkLogicRepositoryConnection other = rep.getConnection();
+
+        Resource context5 = conn.getValueFactory().createURI("http://marklogic.com/test/context5");
+        ValueFactory vf= conn.getValueFactory();
+        URI fei = vf.createURI("http://marklogicsparql.com/id#3333");
+        URI age = vf.createURI("http://marklogicsparql.com/addressbook#age");
+        URI lname = vf.createURI("http://marklogicsparql.com/addressbook#lastName");
+
+        try {
+            conn.begin();
+            assertThat(conn.isActive(), is(equalTo(true)));
+            assertThat(other.isActive(), is(equalTo(false)));
+            conn.add(fei, age, vf.createLiteral(25), context5);
+            other.add(fei, lname, vf.createLiteral("Ling"), context5);
+            // other's add sits in its own write cache until flushed
+            other.sync();
+            conn.rollback();
+            assertThat(conn.size(context5), is(equalTo(1L)));
+            assertThat(other.size(context5), is(equalTo(1L)));
+        } finally {
+            other.clear(context5);
+            other.close();
+        }
+    }
 }
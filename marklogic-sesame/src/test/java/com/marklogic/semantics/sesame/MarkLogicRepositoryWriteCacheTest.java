@@ -29,7 +29,12 @@ import org.openrdf.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * tests write cache
@@ -143,4 +148,83 @@ public class MarkLogicRepositoryWriteCacheTest extends SesameTestBase {
         assertEquals(rconn.size(),1L);
         conn.clear();
     }
+
+    @Test
+    public void testBoundedWriteCache() throws Exception {
+        rep.getMarkLogicClient().setWriteCacheSize(100);
+        rep.getMarkLogicClient().setWriteCacheByteSize(4096);
+        rep.getMarkLogicClient().setWriteCacheMaxInFlight(4);
+        conn.close();
+        conn = rep.getConnection();
+
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        ValueFactory f= conn.getValueFactory();
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        for (int i=0 ; i<1000 ; i++){
+            conn.add(f.createStatement(alice, name, f.createLiteral("Alice" + i)), context1);
+        }
+        assertEquals("Incorrect number of triples.", 1000, conn.size(context1));
+        conn.clear(context1);
+    }
+
+    @Test
+    public void testConcurrentWriteCache() throws Exception {
+        final Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        final ValueFactory f= conn.getValueFactory();
+        final URI name = f.createURI("http://example.org/ontology/name");
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+
+        Thread[] threads = new Thread[4];
+        for (int t=0 ; t<threads.length ; t++){
+            final URI person = f.createURI("http://example.org/people/person" + t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0 ; i<1000 ; i++){
+                            conn.add(f.createStatement(person, name, f.createLiteral("Person" + i)), context1);
+                        }
+                    } catch (Exception e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads){
+            thread.join();
+        }
+        assertTrue(errors.isEmpty());
+        assertEquals("Incorrect number of triples.", 4000, conn.size(context1));
+        conn.clear(context1);
+    }
+
+    @Test
+    public void testRemovalsWithWriteCache() throws Exception {
+        Resource context1 = f.createURI("http://marklogic.com/test/context1");
+        Resource context2 = f.createURI("http://marklogic.com/test/context2");
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+        URI age = f.createURI("http://example.org/ontology/age");
+
+        conn.add(alice, name, f.createLiteral("Alice"), context1);
+        conn.add(alice, name, f.createLiteral("Alice"), context2);
+        conn.sync();
+        assertEquals(2L, conn.size(context1, context2));
+
+        // replace alice's properties
+        conn.remove(alice, name, f.createLiteral("Alice"), context1);
+        conn.add(alice, name, f.createLiteral("Alicia"), context1);
+        conn.add(alice, age, f.createLiteral(30), context1);
+        conn.remove(alice, age, f.createLiteral(30), context1);
+        conn.remove(alice, name, f.createLiteral("Alice"));
+        conn.add(alice, name, f.createLiteral("Alice"), context2);
+
+        assertEquals(1L, conn.size(context1));
+        assertEquals(1L, conn.size(context2));
+        assertTrue(conn.hasStatement(alice, name, f.createLiteral("Alicia"), false, context1));
+        assertTrue(conn.hasStatement(alice, name, f.createLiteral("Alice"), false, context2));
+    }
 }
@@ -21,8 +21,10 @@ import com.marklogic.client.semantics.RDFMimeTypes;
 import com.marklogic.client.semantics.SPARQLRuleset;
 import com.marklogic.semantics.sesame.MarkLogicRepositoryConnection;
 import com.marklogic.semantics.sesame.SesameTestBase;
+import com.marklogic.semantics.sesame.client.MarkLogicClient;
 import info.aduna.iteration.ConvertingIteration;
 import info.aduna.iteration.ExceptionConvertingIteration;
+import info.aduna.iteration.Iterations;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -367,6 +369,50 @@ public class MarkLogicTupleQueryTest extends SesameTestBase {
         Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#Ahaz", oV.stringValue());
     }
 
+    @Test
+    public void testSPARQLQueryBindingsReused()
+            throws Exception {
+
+        String queryString = "select ?s ?o { ?s <http://semanticbible.org/ns/2006/NTNames#parentOf> ?o . filter (str(?o) != \"?s\") } # ?s";
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, queryString);
+
+        tupleQuery.setBinding("s", ValueFactoryImpl.getInstance().createURI("http://semanticbible.org/ns/2006/NTNames#Jotham"));
+        // sent as a server side binding, leaving the query string unchanged
+        Assert.assertEquals(queryString, tupleQuery.getQueryString());
+        TupleQueryResult results = tupleQuery.evaluate();
+        Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#Ahaz", results.next().getValue("o").stringValue());
+        results.close();
+
+        tupleQuery.setBinding("s", ValueFactoryImpl.getInstance().createURI("http://semanticbible.org/ns/2006/NTNames#Ahaz"));
+        results = tupleQuery.evaluate();
+        Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#Hezekiah", results.next().getValue("o").stringValue());
+        results.close();
+
+        tupleQuery.clearBindings();
+        Assert.assertEquals(queryString, tupleQuery.getQueryString());
+    }
+
+    @Test
+    public void testSPARQLQueryLiteralBindings()
+            throws Exception {
+
+        String queryString = "select ?s { ?s <http://www.w3.org/2000/01/rdf-schema#label> ?l }";
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, queryString);
+
+        tupleQuery.setBinding("l", ValueFactoryImpl.getInstance().createLiteral("Ahaz", "en"));
+        Assert.assertEquals(queryString, tupleQuery.getQueryString());
+        TupleQueryResult results = tupleQuery.evaluate();
+        Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#Ahaz", results.next().getValue("s").stringValue());
+        results.close();
+
+        // MarkLogic has no typed binding of custom datatypes, so the value is inlined
+        tupleQuery.setBinding("l", ValueFactoryImpl.getInstance().createLiteral("Ahaz", ValueFactoryImpl.getInstance().createURI("http://example.org/name")));
+        Assert.assertEquals("select ?s { ?s <http://www.w3.org/2000/01/rdf-schema#label> \"Ahaz\"^^<http://example.org/name> }", tupleQuery.getQueryString());
+        results = tupleQuery.evaluate();
+        Assert.assertFalse(results.hasNext());
+        results.close();
+    }
+
 
     @Test
     public void testSPARQLWithWriter()
@@ -444,4 +490,66 @@ public class MarkLogicTupleQueryTest extends SesameTestBase {
         Assert.assertEquals("0", oV.stringValue());
 
     }
+
+    @Test
+    public void testSPARQLQueryInlineResults()
+            throws Exception {
+
+        String queryString = "select * { ?s ?p ?o } limit 2 ";
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(queryString);
+        tupleQuery.setInlineResults(true);
+        TupleQueryResult results = tupleQuery.evaluate();
+
+        Assert.assertEquals(results.getBindingNames().get(0), "s");
+        Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#AttaliaGeodata", results.next().getValue("s").stringValue());
+        Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#BabylonGeodata", results.next().getValue("s").stringValue());
+        Assert.assertFalse(results.hasNext());
+        results.close();
+    }
+
+    @Test
+    public void testSPARQLQueryWithResultPaging()
+            throws Exception {
+
+        String queryString = "select ?s ?p ?o { ?s ?p ?o } order by ?s ?p ?o";
+        List<BindingSet> expected = Iterations.asList(conn.prepareTupleQuery(queryString).evaluate());
+
+        MarkLogicClient client = rep.getMarkLogicClient();
+        client.setResultPageLength(100);
+        MarkLogicRepositoryConnection pagedConn = rep.getConnection();
+        try {
+            List<BindingSet> paged = Iterations.asList(pagedConn.prepareTupleQuery(queryString).evaluate());
+            Assert.assertTrue(expected.size() > 100);
+            Assert.assertEquals(expected.size(), paged.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(expected.get(i).getValue("s"), paged.get(i).getValue("s"));
+                Assert.assertEquals(expected.get(i).getValue("o"), paged.get(i).getValue("o"));
+            }
+        } finally {
+            client.setResultPageLength(0);
+            pagedConn.close();
+        }
+    }
+
+    @Test
+    public void testSPARQLQueryResultCache()
+            throws Exception {
+        MarkLogicClient client = rep.getMarkLogicClient();
+        client.setQueryResultCacheSize(10);
+
+        String queryString = "select (count(*) as ?c) { ?s ?p ?o }";
+        long count = Long.parseLong(conn.prepareTupleQuery(queryString).evaluate().next().getValue("c").stringValue());
+        Assert.assertEquals(count, Long.parseLong(conn.prepareTupleQuery(queryString).evaluate().next().getValue("c").stringValue()));
+        Assert.assertEquals(1, client.getQueryResultCacheHits());
+
+        Resource context = f.createURI("http://marklogic.com/test/cache");
+        conn.add(f.createURI("http://marklogic.com/test/s"), f.createURI("http://marklogic.com/test/p"), f.createLiteral("o"), context);
+        try {
+            Assert.assertEquals(count + 1, Long.parseLong(conn.prepareTupleQuery(queryString).evaluate().next().getValue("c").stringValue()));
+            Assert.assertEquals(1, client.getQueryResultCacheHits());
+        } finally {
+            conn.clear(context);
+            client.setQueryResultCacheSize(0);
+        }
+    }
 }